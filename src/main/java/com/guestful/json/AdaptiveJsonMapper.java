@@ -0,0 +1,310 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.json;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * Serializes each root type with the fastest of several engines producing exactly the same JSON as a reference engine.
+ * <p>
+ * While a type is being learned, objects are serialized by the reference engine, and one call out of
+ * {@link #setSampleInterval(int)} is also serialized by every candidate engine, timed and compared. A candidate
+ * producing a different output, or failing, is discarded for that type. After {@link #setSamplesToDecide(int)}
+ * samples, the fastest remaining engine is selected. The output of a selected candidate keeps being checked against
+ * the reference once every {@link #setVerifyInterval(int)} calls, and the type falls back to the reference engine on
+ * the first difference.
+ * <p>
+ * Maps, iterables and arrays are always serialized by the reference engine: their content is not tied to their type,
+ * so samples of one instance say nothing about the next one. Batches, sources and streams go to the selected engine of
+ * their type once there is one, and through {@link #toJson(Object)} before.
+ * <p>
+ * Reading is always done by the reference engine.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class AdaptiveJsonMapper implements JsonMapper {
+
+    private final JsonMapper[] engines;
+
+    private volatile ClassValue<Route> routes = newRoutes();
+    private int sampleInterval = 16;
+    private int samplesToDecide = 32;
+    private int verifyInterval = 1024;
+    // replaced by tests
+    LongSupplier clock = System::nanoTime;
+
+    /**
+     * @param reference  the engine which output is expected, for instance a GroovyJsonMapper
+     * @param candidates the engines which may replace it, for instance a JacksonJsonMapper
+     */
+    public AdaptiveJsonMapper(JsonMapper reference, JsonMapper... candidates) {
+        this.engines = new JsonMapper[candidates.length + 1];
+        this.engines[0] = reference;
+        System.arraycopy(candidates, 0, this.engines, 1, candidates.length);
+    }
+
+    public AdaptiveJsonMapper setSampleInterval(int sampleInterval) {
+        if (sampleInterval <= 0) throw new IllegalArgumentException("sampleInterval must be positive: " + sampleInterval);
+        this.sampleInterval = sampleInterval;
+        return this;
+    }
+
+    public AdaptiveJsonMapper setSamplesToDecide(int samplesToDecide) {
+        if (samplesToDecide <= 1) throw new IllegalArgumentException("samplesToDecide must be greater than 1: " + samplesToDecide);
+        this.samplesToDecide = samplesToDecide;
+        return this;
+    }
+
+    public AdaptiveJsonMapper setVerifyInterval(int verifyInterval) {
+        if (verifyInterval <= 0) throw new IllegalArgumentException("verifyInterval must be positive: " + verifyInterval);
+        this.verifyInterval = verifyInterval;
+        return this;
+    }
+
+    public JsonMapper getReference() {
+        return engines[0];
+    }
+
+    /**
+     * @return the engine serializing the given type, or null while it is being learned
+     */
+    public JsonMapper getSelectedMapper(Class<?> type) {
+        return routes.get(type).selected;
+    }
+
+    /**
+     * Forgets all measures and selections
+     */
+    public void reset() {
+        routes = newRoutes();
+    }
+
+    @Override
+    public <T> T fromJson(String json, Class<T> type) throws JsonMapperException {
+        return engines[0].fromJson(json, type);
+    }
+
+    @Override
+    public <T> T fromJson(Reader reader, Class<T> type) throws JsonMapperException, IOException {
+        return engines[0].fromJson(reader, type);
+    }
+
+    @Override
+    public <T> T convertValue(Object value, Class<T> type) throws JsonMapperException {
+        return engines[0].convertValue(value, type);
+    }
+
+    @Override
+    public String toJson(Object o) throws JsonMapperException {
+        if (o == null || isContainer(o.getClass())) {
+            return engines[0].toJson(o);
+        }
+        Route route = routes.get(o.getClass());
+        long call = route.calls.getAndIncrement();
+        JsonMapper selected = route.selected;
+        if (selected == null) {
+            return call % sampleInterval == 0 ? sample(route, o) : engines[0].toJson(o);
+        }
+        if (selected != engines[0] && call % verifyInterval == 0) {
+            return verify(route, selected, o);
+        }
+        return selected.toJson(o);
+    }
+
+    @Override
+    public void toJson(Object o, Writer writer) throws JsonMapperException, IOException {
+        JsonMapper engine = direct(o);
+        if (engine != null) {
+            engine.toJson(o, writer);
+        } else {
+            writer.write(toJson(o));
+            writer.flush();
+        }
+    }
+
+    @Override
+    public void toJson(Object o, OutputStream os, Charset charset) throws JsonMapperException, IOException {
+        JsonMapper engine = direct(o);
+        if (engine != null) {
+            engine.toJson(o, os, charset);
+        } else {
+            JsonMapper.super.toJson(o, os, charset);
+        }
+    }
+
+    @Override
+    public JsonByteSource toJsonSource(Object o) throws JsonMapperException {
+        JsonMapper engine = direct(o);
+        return engine != null ? engine.toJsonSource(o) : JsonMapper.super.toJsonSource(o);
+    }
+
+    /**
+     * Batches of objects of a single type are serialized at once by its selected engine, others object by object
+     */
+    @Override
+    public JsonBatch toJsonBatch(Collection<?> objects) throws JsonMapperException {
+        Iterator<?> it = objects.iterator();
+        Object first = it.hasNext() ? it.next() : null;
+        if (first != null && !isContainer(first.getClass())) {
+            Class<?> type = first.getClass();
+            while (it.hasNext()) {
+                Object o = it.next();
+                if (o == null || o.getClass() != type) {
+                    return JsonMapper.super.toJsonBatch(objects);
+                }
+            }
+            // a batch counts as one call
+            JsonMapper engine = direct(type);
+            if (engine != null) {
+                return engine.toJsonBatch(objects);
+            }
+        }
+        return JsonMapper.super.toJsonBatch(objects);
+    }
+
+    /**
+     * @return the engine which can write the object directly, or null if it has to go through {@link #toJson(Object)}
+     * to be sampled or verified
+     */
+    private JsonMapper direct(Object o) {
+        return o == null || isContainer(o.getClass()) ? engines[0] : direct(o.getClass());
+    }
+
+    private JsonMapper direct(Class<?> type) {
+        Route route = routes.get(type);
+        JsonMapper selected = route.selected;
+        // the next call number is the one toJson(Object) would verify
+        if (selected == null || selected != engines[0] && route.calls.get() % verifyInterval == 0) {
+            return null;
+        }
+        route.calls.getAndIncrement();
+        return selected;
+    }
+
+    private String sample(Route route, Object o) {
+        // a single thread samples a type at a time, the others do not wait
+        if (!route.lock.tryLock()) {
+            return engines[0].toJson(o);
+        }
+        try {
+            String[] outputs = new String[engines.length];
+            long[] durations = new long[engines.length];
+            // engines take turns at running first, so that none always benefits from warm caches
+            for (int n = 0; n < engines.length; n++) {
+                int i = (n + route.rounds) % engines.length;
+                if (route.discarded[i]) continue;
+                long start = clock.getAsLong();
+                try {
+                    outputs[i] = engines[i].toJson(o);
+                } catch (RuntimeException e) {
+                    if (i == 0) throw e;
+                    route.discarded[i] = true;
+                }
+                durations[i] = clock.getAsLong() - start;
+            }
+            for (int i = 0; i < engines.length; i++) {
+                if (route.discarded[i]) continue;
+                if (!outputs[0].equals(outputs[i])) {
+                    route.discarded[i] = true;
+                } else if (route.rounds > 0) {
+                    // the first round only warms up
+                    route.nanos[i] += durations[i];
+                    route.samples[i]++;
+                }
+            }
+            if (++route.rounds >= samplesToDecide) {
+                route.selected = route.fastest();
+            }
+            return outputs[0];
+        } finally {
+            route.lock.unlock();
+        }
+    }
+
+    private String verify(Route route, JsonMapper selected, Object o) {
+        String expected = engines[0].toJson(o);
+        String actual;
+        try {
+            actual = selected.toJson(o);
+        } catch (RuntimeException e) {
+            actual = null;
+        }
+        if (!expected.equals(actual)) {
+            route.lock.lock();
+            try {
+                for (int i = 1; i < engines.length; i++) {
+                    if (engines[i] == selected) route.discarded[i] = true;
+                }
+                route.selected = engines[0];
+            } finally {
+                route.lock.unlock();
+            }
+        }
+        return expected;
+    }
+
+    private static boolean isContainer(Class<?> type) {
+        return type.isArray() || Map.class.isAssignableFrom(type) || Iterable.class.isAssignableFrom(type) || Iterator.class.isAssignableFrom(type);
+    }
+
+    private ClassValue<Route> newRoutes() {
+        return new ClassValue<Route>() {
+            @Override
+            protected Route computeValue(Class<?> type) {
+                return new Route(engines.length);
+            }
+        };
+    }
+
+    private final class Route {
+        final AtomicLong calls = new AtomicLong();
+        final ReentrantLock lock = new ReentrantLock();
+        // guarded by lock
+        final boolean[] discarded;
+        final long[] nanos;
+        final int[] samples;
+        int rounds;
+
+        volatile JsonMapper selected;
+
+        Route(int engineCount) {
+            discarded = new boolean[engineCount];
+            nanos = new long[engineCount];
+            samples = new int[engineCount];
+        }
+
+        JsonMapper fastest() {
+            int best = 0;
+            for (int i = 1; i < engines.length; i++) {
+                if (!discarded[i] && samples[i] > 0 && nanos[i] / samples[i] < nanos[best] / samples[best]) {
+                    best = i;
+                }
+            }
+            return engines[best];
+        }
+    }
+
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.json;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A {@link JsonMapper} which can also exchange the same object model in a compact binary format, for node to node
+ * calls where payload size and parsing cost matter more than readability.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public interface BinaryJsonMapper extends JsonMapper {
+
+    <T> T fromBinary(InputStream is, Class<T> type) throws JsonMapperException, IOException;
+
+    default <T> T fromBinary(byte[] bytes, Class<T> type) throws JsonMapperException {
+        try {
+            return fromBinary(new ByteArrayInputStream(bytes), type);
+        } catch (IOException e) {
+            throw new JsonMapperException(e);
+        }
+    }
+
+    default Object fromBinary(byte[] bytes) throws JsonMapperException {
+        return fromBinary(bytes, Object.class);
+    }
+
+    void toBinary(Object o, OutputStream os) throws JsonMapperException, IOException;
+
+    default byte[] toBinary(Object o) throws JsonMapperException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try {
+            toBinary(o, baos);
+        } catch (IOException e) {
+            throw new JsonMapperException(e);
+        }
+        return baos.toByteArray();
+    }
+
+}
@@ -0,0 +1,323 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.json;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resumable parser of UTF-8 JSON, building maps, lists, strings, numbers and booleans byte after byte.
+ * <p>
+ * The parser state is kept in fields and an explicit stack of open containers, so a chunk may end anywhere, including
+ * in the middle of a string, a number or a multi-byte character. The tree is bound with
+ * {@link JsonMapper#convertValue(Object, Class)} once complete.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+final class IncrementalJsonParser<T> implements JsonByteSink<T> {
+
+    private static final int VALUE = 0;
+    private static final int FIRST_ITEM = 1;
+    private static final int FIRST_FIELD = 2;
+    private static final int FIELD = 3;
+    private static final int COLON = 4;
+    private static final int AFTER_VALUE = 5;
+    private static final int STRING = 6;
+    private static final int ESCAPE = 7;
+    private static final int UNICODE = 8;
+    private static final int NUMBER = 9;
+    private static final int LITERAL = 10;
+    private static final int DONE = 11;
+
+    private static final byte[] TRUE = {'t', 'r', 'u', 'e'};
+    private static final byte[] FALSE = {'f', 'a', 'l', 's', 'e'};
+    private static final byte[] NULL = {'n', 'u', 'l', 'l'};
+
+    private final JsonMapper mapper;
+    private final Class<T> type;
+    private final Deque<Object> containers = new ArrayDeque<>();
+    private final Deque<String> names = new ArrayDeque<>();
+    private final StringBuilder text = new StringBuilder();
+
+    // raw bytes of the string or number being read, decoded at once so that characters may span chunks
+    private byte[] bytes = new byte[64];
+    private int length;
+
+    private int state = VALUE;
+    private boolean key;
+    private boolean decimal;
+    private int unicode;
+    private int unicodeDigits;
+    private byte[] literal;
+    private int literalIndex;
+    private Object root;
+    private long position;
+
+    IncrementalJsonParser(JsonMapper mapper, Class<T> type) {
+        this.mapper = mapper;
+        this.type = type;
+    }
+
+    @Override
+    public boolean feed(ByteBuffer chunk) throws JsonMapperException {
+        while (chunk.hasRemaining()) {
+            accept(chunk.get());
+            position++;
+        }
+        return state == DONE;
+    }
+
+    @Override
+    public T finish() throws JsonMapperException {
+        if (state == NUMBER && containers.isEmpty()) {
+            endNumber();
+        }
+        if (state != DONE) {
+            throw error("Incomplete JSON document");
+        }
+        return mapper.convertValue(root, type);
+    }
+
+    private void accept(byte b) {
+        switch (state) {
+            case VALUE:
+            case FIRST_ITEM:
+                if (isWhitespace(b)) return;
+                if (b == ']' && state == FIRST_ITEM) {
+                    end();
+                } else {
+                    beginValue(b);
+                }
+                return;
+            case FIRST_FIELD:
+            case FIELD:
+                if (isWhitespace(b)) return;
+                if (b == '}' && state == FIRST_FIELD) {
+                    end();
+                } else if (b == '"') {
+                    beginString(true);
+                } else {
+                    throw error("Expected a field name");
+                }
+                return;
+            case COLON:
+                if (isWhitespace(b)) return;
+                if (b != ':') throw error("Expected ':' after field name");
+                state = VALUE;
+                return;
+            case AFTER_VALUE:
+                if (isWhitespace(b)) return;
+                boolean inObject = containers.peek() instanceof Map;
+                if (b == ',') {
+                    state = inObject ? FIELD : VALUE;
+                } else if (b == (inObject ? '}' : ']')) {
+                    end();
+                } else {
+                    throw error(inObject ? "Expected ',' or '}'" : "Expected ',' or ']'");
+                }
+                return;
+            case STRING:
+                if (b == '"') {
+                    endString();
+                } else if (b == '\\') {
+                    decodeBytes();
+                    state = ESCAPE;
+                } else {
+                    append(b);
+                }
+                return;
+            case ESCAPE:
+                state = STRING;
+                switch (b) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        text.append((char) b);
+                        return;
+                    case 'b':
+                        text.append('\b');
+                        return;
+                    case 'f':
+                        text.append('\f');
+                        return;
+                    case 'n':
+                        text.append('\n');
+                        return;
+                    case 'r':
+                        text.append('\r');
+                        return;
+                    case 't':
+                        text.append('\t');
+                        return;
+                    case 'u':
+                        unicode = 0;
+                        unicodeDigits = 0;
+                        state = UNICODE;
+                        return;
+                    default:
+                        throw error("Invalid escape sequence");
+                }
+            case UNICODE:
+                int digit = Character.digit(b, 16);
+                if (digit < 0) throw error("Invalid unicode escape");
+                unicode = (unicode << 4) | digit;
+                if (++unicodeDigits == 4) {
+                    text.append((char) unicode);
+                    state = STRING;
+                }
+                return;
+            case NUMBER:
+                if (b >= '0' && b <= '9' || b == '-' || b == '+') {
+                    append(b);
+                } else if (b == '.' || b == 'e' || b == 'E') {
+                    decimal = true;
+                    append(b);
+                } else {
+                    endNumber();
+                    accept(b);
+                }
+                return;
+            case LITERAL:
+                if (b != literal[literalIndex++]) throw error("Invalid literal");
+                if (literalIndex == literal.length) {
+                    complete(literal == TRUE ? Boolean.TRUE : literal == FALSE ? Boolean.FALSE : null);
+                }
+                return;
+            case DONE:
+                if (!isWhitespace(b)) throw error("Unexpected content after JSON document");
+                return;
+            default:
+                throw new IllegalStateException("state " + state);
+        }
+    }
+
+    private void beginValue(byte b) {
+        switch (b) {
+            case '{':
+                containers.push(new LinkedHashMap<String, Object>());
+                state = FIRST_FIELD;
+                return;
+            case '[':
+                containers.push(new ArrayList<>());
+                state = FIRST_ITEM;
+                return;
+            case '"':
+                beginString(false);
+                return;
+            case 't':
+                beginLiteral(TRUE);
+                return;
+            case 'f':
+                beginLiteral(FALSE);
+                return;
+            case 'n':
+                beginLiteral(NULL);
+                return;
+            default:
+                if (b == '-' || b >= '0' && b <= '9') {
+                    length = 0;
+                    decimal = false;
+                    append(b);
+                    state = NUMBER;
+                    return;
+                }
+                throw error("Unexpected character '" + (char) b + "'");
+        }
+    }
+
+    private void beginString(boolean key) {
+        this.key = key;
+        text.setLength(0);
+        length = 0;
+        state = STRING;
+    }
+
+    private void endString() {
+        decodeBytes();
+        String s = text.toString();
+        if (key) {
+            names.push(s);
+            state = COLON;
+        } else {
+            complete(s);
+        }
+    }
+
+    private void endNumber() {
+        String number = new String(bytes, 0, length, StandardCharsets.US_ASCII);
+        try {
+            complete(ProjectingJsonReader.toNumber(number, decimal));
+        } catch (NumberFormatException e) {
+            throw error("Invalid number " + number);
+        }
+    }
+
+    private void beginLiteral(byte[] literal) {
+        this.literal = literal;
+        this.literalIndex = 1;
+        state = LITERAL;
+    }
+
+    private void end() {
+        complete(containers.pop());
+    }
+
+    @SuppressWarnings("unchecked")
+    private void complete(Object value) {
+        Object container = containers.peek();
+        if (container == null) {
+            root = value;
+            state = DONE;
+        } else {
+            if (container instanceof Map) {
+                ((Map<String, Object>) container).put(names.pop(), value);
+            } else {
+                ((List<Object>) container).add(value);
+            }
+            state = AFTER_VALUE;
+        }
+    }
+
+    private void append(byte b) {
+        if (length == bytes.length) {
+            bytes = Arrays.copyOf(bytes, length << 1);
+        }
+        bytes[length++] = b;
+    }
+
+    private void decodeBytes() {
+        if (length > 0) {
+            text.append(new String(bytes, 0, length, StandardCharsets.UTF_8));
+            length = 0;
+        }
+    }
+
+    private JsonMapperException error(String message) {
+        return new JsonMapperException(message + " at position " + position);
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+}
@@ -0,0 +1,503 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.json;
+
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Decorates a {@link JsonMapper} to report each call to a {@link JsonMapperListener}.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class InstrumentedJsonMapper implements JsonMapper {
+
+    private final JsonMapper delegate;
+    private final JsonMapperListener listener;
+
+    public InstrumentedJsonMapper(JsonMapper delegate, JsonMapperListener listener) {
+        this.delegate = delegate;
+        this.listener = listener;
+    }
+
+    public JsonMapper getDelegate() {
+        return delegate;
+    }
+
+    public JsonMapperListener getListener() {
+        return listener;
+    }
+
+    @Override
+    public <T> T fromJson(String json, Class<T> type) throws JsonMapperException {
+        long start = System.nanoTime();
+        try {
+            T o = delegate.fromJson(json, type);
+            listener.onRead(type, System.nanoTime() - start);
+            return o;
+        } catch (RuntimeException e) {
+            listener.onError(type, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public <T> T fromJson(Reader reader, Class<T> type) throws JsonMapperException, IOException {
+        long start = System.nanoTime();
+        try {
+            T o = delegate.fromJson(reader, type);
+            listener.onRead(type, System.nanoTime() - start);
+            return o;
+        } catch (RuntimeException | IOException e) {
+            listener.onError(type, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public <T> T fromJson(InputStream is, Charset charset, Class<T> type) throws JsonMapperException, IOException {
+        long start = System.nanoTime();
+        try {
+            T o = delegate.fromJson(is, charset, type);
+            listener.onRead(type, System.nanoTime() - start);
+            return o;
+        } catch (RuntimeException | IOException e) {
+            listener.onError(type, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public <T> T fromJson(File file, Class<T> type) throws JsonMapperException, IOException {
+        long start = System.nanoTime();
+        try {
+            T o = delegate.fromJson(file, type);
+            listener.onRead(type, System.nanoTime() - start);
+            return o;
+        } catch (RuntimeException | IOException e) {
+            listener.onError(type, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public <T> T fromJson(Reader reader, Class<T> type, JsonProjection projection) throws JsonMapperException, IOException {
+        long start = System.nanoTime();
+        try {
+            T o = delegate.fromJson(reader, type, projection);
+            listener.onRead(type, System.nanoTime() - start);
+            return o;
+        } catch (RuntimeException | IOException e) {
+            listener.onError(type, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public <T> T fromJson(String json, Class<T> type, JsonProjection projection) throws JsonMapperException {
+        long start = System.nanoTime();
+        try {
+            T o = delegate.fromJson(json, type, projection);
+            listener.onRead(type, System.nanoTime() - start);
+            return o;
+        } catch (RuntimeException e) {
+            listener.onError(type, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Conversions are reported as reads into the requested type
+     */
+    @Override
+    public <T> T convertValue(Object value, Class<T> type) throws JsonMapperException {
+        long start = System.nanoTime();
+        try {
+            T o = delegate.convertValue(value, type);
+            listener.onRead(type, System.nanoTime() - start);
+            return o;
+        } catch (RuntimeException e) {
+            listener.onError(type, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public String toJson(Object o) throws JsonMapperException {
+        Class<?> type = o == null ? null : o.getClass();
+        long start = System.nanoTime();
+        try {
+            String json = delegate.toJson(o);
+            listener.onWrite(type, json.length(), System.nanoTime() - start);
+            return json;
+        } catch (RuntimeException e) {
+            listener.onError(type, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public void toJson(Object o, Writer writer) throws JsonMapperException, IOException {
+        Class<?> type = o == null ? null : o.getClass();
+        CountingWriter counting = new CountingWriter(writer);
+        long start = System.nanoTime();
+        try {
+            delegate.toJson(o, counting);
+            listener.onWrite(type, counting.count, System.nanoTime() - start);
+        } catch (RuntimeException | IOException e) {
+            listener.onError(type, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public void toJson(Object o, OutputStream os, Charset charset) throws JsonMapperException, IOException {
+        Class<?> type = o == null ? null : o.getClass();
+        CountingOutputStream counting = new CountingOutputStream(os);
+        long start = System.nanoTime();
+        try {
+            delegate.toJson(o, counting, charset);
+            listener.onWrite(type, counting.count, System.nanoTime() - start);
+        } catch (RuntimeException | IOException e) {
+            listener.onError(type, e);
+            throw e;
+        }
+    }
+
+    /**
+     * The length reported is the size of the file once written
+     */
+    @Override
+    public void toJson(Object o, File f) throws JsonMapperException, IOException {
+        Class<?> type = o == null ? null : o.getClass();
+        long start = System.nanoTime();
+        try {
+            delegate.toJson(o, f);
+            listener.onWrite(type, f.length(), System.nanoTime() - start);
+        } catch (RuntimeException | IOException e) {
+            listener.onError(type, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Each record is reported as a read, with the time spent in reading and parsing its line
+     */
+    @Override
+    public <T> Stream<T> fromJsonLines(Reader reader, Class<T> type) throws JsonMapperException {
+        try {
+            return timed(delegate.fromJsonLines(reader, type), type);
+        } catch (RuntimeException e) {
+            listener.onError(type, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public <T> Stream<T> fromJsonLines(InputStream is, Charset charset, Class<T> type) throws JsonMapperException {
+        try {
+            return timed(delegate.fromJsonLines(is, charset, type), type);
+        } catch (RuntimeException e) {
+            listener.onError(type, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public <T> Stream<T> fromJsonLines(Path file, Class<T> type) throws JsonMapperException, IOException {
+        try {
+            return timed(delegate.fromJsonLines(file, type), type);
+        } catch (RuntimeException | IOException e) {
+            listener.onError(type, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public <T> Stream<T> fromJsonLines(Stream<String> lines, Class<T> type) throws JsonMapperException {
+        try {
+            return timed(delegate.fromJsonLines(lines, type), type);
+        } catch (RuntimeException e) {
+            listener.onError(type, e);
+            throw e;
+        }
+    }
+
+    /**
+     * The whole stream is reported as one write of a null type
+     */
+    @Override
+    public void toJsonLines(Stream<?> objects, Writer writer) throws JsonMapperException, IOException {
+        CountingWriter counting = new CountingWriter(writer);
+        long start = System.nanoTime();
+        try {
+            delegate.toJsonLines(objects, counting);
+            listener.onWrite(null, counting.count, System.nanoTime() - start);
+        } catch (RuntimeException | IOException e) {
+            listener.onError(null, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public void toJsonLines(Stream<?> objects, OutputStream os, Charset charset) throws JsonMapperException, IOException {
+        CountingOutputStream counting = new CountingOutputStream(os);
+        long start = System.nanoTime();
+        try {
+            delegate.toJsonLines(objects, counting, charset);
+            listener.onWrite(null, counting.count, System.nanoTime() - start);
+        } catch (RuntimeException | IOException e) {
+            listener.onError(null, e);
+            throw e;
+        }
+    }
+
+    /**
+     * The batch is reported as one write of the type of its elements, or of a null type if they are of several types
+     */
+    @Override
+    public JsonBatch toJsonBatch(Collection<?> objects) throws JsonMapperException {
+        Class<?> type = commonType(objects);
+        long start = System.nanoTime();
+        try {
+            JsonBatch batch = delegate.toJsonBatch(objects);
+            listener.onWrite(type, batch.getChars().length, System.nanoTime() - start);
+            return batch;
+        } catch (RuntimeException e) {
+            listener.onError(type, e);
+            throw e;
+        }
+    }
+
+    /**
+     * The write is reported once the source is complete, with the time spent in creating and filling it
+     */
+    @Override
+    public JsonByteSource toJsonSource(Object o) throws JsonMapperException {
+        Class<?> type = o == null ? null : o.getClass();
+        long start = System.nanoTime();
+        try {
+            JsonByteSource source = delegate.toJsonSource(o);
+            return new TimedSource(source, type, System.nanoTime() - start);
+        } catch (RuntimeException e) {
+            listener.onError(type, e);
+            throw e;
+        }
+    }
+
+    /**
+     * The read is reported when the sink is finished, with the time spent in feeding and finishing it
+     */
+    @Override
+    public <T> JsonByteSink<T> newJsonSink(Class<T> type) {
+        return new TimedSink<>(delegate.newJsonSink(type), type);
+    }
+
+    private <T> Stream<T> timed(Stream<T> records, Class<T> type) {
+        return StreamSupport.stream(new TimedSpliterator<>(records.spliterator(), type), records.isParallel())
+            .onClose(records::close);
+    }
+
+    private static Class<?> commonType(Collection<?> objects) {
+        Class<?> type = null;
+        for (Object o : objects) {
+            if (o == null) continue;
+            if (type == null) {
+                type = o.getClass();
+            } else if (type != o.getClass()) {
+                return null;
+            }
+        }
+        return type;
+    }
+
+    private final class TimedSpliterator<T> implements Spliterator<T> {
+        final Spliterator<T> spliterator;
+        final Class<T> type;
+        // set once the record is handed to the consumer, whose errors are not the mapper's
+        boolean delivered;
+
+        TimedSpliterator(Spliterator<T> spliterator, Class<T> type) {
+            this.spliterator = spliterator;
+            this.type = type;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            long start = System.nanoTime();
+            delivered = false;
+            try {
+                return spliterator.tryAdvance(o -> {
+                    listener.onRead(type, System.nanoTime() - start);
+                    delivered = true;
+                    action.accept(o);
+                });
+            } catch (RuntimeException e) {
+                if (!delivered) {
+                    listener.onError(type, e);
+                }
+                throw e;
+            }
+        }
+
+        @Override
+        public Spliterator<T> trySplit() {
+            Spliterator<T> split = spliterator.trySplit();
+            return split == null ? null : new TimedSpliterator<>(split, type);
+        }
+
+        @Override
+        public long estimateSize() {
+            return spliterator.estimateSize();
+        }
+
+        @Override
+        public int characteristics() {
+            return spliterator.characteristics();
+        }
+    }
+
+    private final class TimedSource implements JsonByteSource {
+        final JsonByteSource source;
+        final Class<?> type;
+        long nanos;
+        long count;
+        boolean reported;
+
+        TimedSource(JsonByteSource source, Class<?> type, long nanos) {
+            this.source = source;
+            this.type = type;
+            this.nanos = nanos;
+        }
+
+        @Override
+        public boolean fill(ByteBuffer buffer) throws JsonMapperException {
+            int position = buffer.position();
+            long start = System.nanoTime();
+            try {
+                boolean done = source.fill(buffer);
+                nanos += System.nanoTime() - start;
+                count += buffer.position() - position;
+                if (done && !reported) {
+                    reported = true;
+                    listener.onWrite(type, count, nanos);
+                }
+                return done;
+            } catch (RuntimeException e) {
+                listener.onError(type, e);
+                throw e;
+            }
+        }
+    }
+
+    private final class TimedSink<T> implements JsonByteSink<T> {
+        final JsonByteSink<T> sink;
+        final Class<T> type;
+        long nanos;
+
+        TimedSink(JsonByteSink<T> sink, Class<T> type) {
+            this.sink = sink;
+            this.type = type;
+        }
+
+        @Override
+        public boolean feed(ByteBuffer chunk) throws JsonMapperException {
+            long start = System.nanoTime();
+            try {
+                boolean complete = sink.feed(chunk);
+                nanos += System.nanoTime() - start;
+                return complete;
+            } catch (RuntimeException e) {
+                listener.onError(type, e);
+                throw e;
+            }
+        }
+
+        @Override
+        public T finish() throws JsonMapperException {
+            long start = System.nanoTime();
+            try {
+                T o = sink.finish();
+                listener.onRead(type, nanos + System.nanoTime() - start);
+                return o;
+            } catch (RuntimeException e) {
+                listener.onError(type, e);
+                throw e;
+            }
+        }
+    }
+
+    private static final class CountingWriter extends FilterWriter {
+        long count;
+
+        CountingWriter(Writer out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int c) throws IOException {
+            out.write(c);
+            count++;
+        }
+
+        @Override
+        public void write(char[] cbuf, int off, int len) throws IOException {
+            out.write(cbuf, off, len);
+            count += len;
+        }
+
+        @Override
+        public void write(String str, int off, int len) throws IOException {
+            out.write(str, off, len);
+            count += len;
+        }
+    }
+
+    private static final class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+}
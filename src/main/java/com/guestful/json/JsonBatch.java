@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.json;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * JSON documents of a batch of objects, serialized one after the other into a single array of characters.
+ * <p>
+ * Document {@code i} spans from {@link #getStart(int)} to {@link #getEnd(int)} in {@link #getChars()}, so documents
+ * can be written out without creating one string each.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public final class JsonBatch {
+
+    private final char[] chars;
+    private final int[] offsets;
+
+    /**
+     * @param chars   the documents, one after the other
+     * @param offsets the start of each document, followed by the end of the last one
+     */
+    public JsonBatch(char[] chars, int[] offsets) {
+        if (offsets.length == 0) throw new IllegalArgumentException("offsets must hold at least the end of the batch");
+        this.chars = chars;
+        this.offsets = offsets;
+    }
+
+    public int size() {
+        return offsets.length - 1;
+    }
+
+    /**
+     * @return the characters of all documents, shared: not to be modified
+     */
+    public char[] getChars() {
+        return chars;
+    }
+
+    public int getStart(int index) {
+        checkIndex(index);
+        return offsets[index];
+    }
+
+    public int getEnd(int index) {
+        checkIndex(index);
+        return offsets[index + 1];
+    }
+
+    public String get(int index) {
+        checkIndex(index);
+        return new String(chars, offsets[index], offsets[index + 1] - offsets[index]);
+    }
+
+    public List<String> asList() {
+        return new AbstractList<String>() {
+            @Override
+            public String get(int index) {
+                return JsonBatch.this.get(index);
+            }
+
+            @Override
+            public int size() {
+                return JsonBatch.this.size();
+            }
+        };
+    }
+
+    public void writeTo(int index, Writer writer) throws IOException {
+        checkIndex(index);
+        writer.write(chars, offsets[index], offsets[index + 1] - offsets[index]);
+    }
+
+    /**
+     * Writes all documents as newline-delimited JSON
+     */
+    public void writeLines(Writer writer) throws IOException {
+        for (int i = 0; i < offsets.length - 1; i++) {
+            writer.write(chars, offsets[i], offsets[i + 1] - offsets[i]);
+            writer.write('\n');
+        }
+        writer.flush();
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= offsets.length - 1) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+        }
+    }
+
+}
@@ -0,0 +1,50 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.json;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Push-style input of a UTF-8 JSON document, for non-blocking servers: chunks are fed as they are read from the
+ * channel, and are parsed right away instead of being accumulated.
+ * <pre>
+ * JsonByteSink&lt;Order&gt; sink = mapper.newJsonSink(Order.class);
+ * // on each read
+ * sink.feed(buffer);
+ * // at the end of the request body
+ * Order order = sink.finish();
+ * </pre>
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public interface JsonByteSink<T> {
+
+    /**
+     * Consumes all the remaining bytes of the chunk
+     *
+     * @return true once the document is complete, in which case only whitespace may follow
+     */
+    boolean feed(ByteBuffer chunk) throws JsonMapperException;
+
+    /**
+     * Signals the end of input
+     *
+     * @return the document bound to the requested type
+     * @throws JsonMapperException if the document is incomplete
+     */
+    T finish() throws JsonMapperException;
+
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.json;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Pull-style UTF-8 output of a JSON document, for non-blocking servers: the caller repeatedly hands a buffer to fill,
+ * writes it to its channel when it is ready, and stops once the document is complete.
+ * <pre>
+ * JsonByteSource source = mapper.toJsonSource(o);
+ * boolean done;
+ * do {
+ *     done = source.fill(buffer);
+ *     buffer.flip();
+ *     channel.write(buffer); // or keep the buffer until the channel is writable
+ *     buffer.compact();
+ * } while (!done);
+ * </pre>
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public interface JsonByteSource {
+
+    /**
+     * Writes as many bytes of the document as fit in the remaining space of the buffer
+     *
+     * @return true when the end of the document has been written
+     */
+    boolean fill(ByteBuffer buffer) throws JsonMapperException;
+
+    /**
+     * @return a source copying the given bytes
+     */
+    static JsonByteSource of(byte[] bytes) {
+        return new JsonByteSource() {
+            int position;
+
+            @Override
+            public boolean fill(ByteBuffer buffer) {
+                int length = Math.min(buffer.remaining(), bytes.length - position);
+                buffer.put(bytes, position, length);
+                position += length;
+                return position == bytes.length;
+            }
+        };
+    }
+
+}
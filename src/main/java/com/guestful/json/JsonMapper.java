@@ -19,12 +19,21 @@ import javax.json.*;
 import java.io.*;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Stream;
 
 /**
  * @author Mathieu Carbou (mathieu.carbou@gmail.com)
  */
 public interface JsonMapper {
 
+    int JSON_LINES_BATCH_SIZE = 256;
+
     default <T> T fromJson(JsonValue json, Class<T> type) throws JsonMapperException {
         return fromJson(json.toString(), type);
     }
@@ -39,6 +48,31 @@ public interface JsonMapper {
 
     <T> T fromJson(Reader reader, Class<T> type) throws JsonMapperException, IOException;
 
+    /**
+     * Reads only the fields selected by the projection: the values of the other fields are skipped without being parsed
+     */
+    default <T> T fromJson(Reader reader, Class<T> type, JsonProjection projection) throws JsonMapperException, IOException {
+        if (projection == null || projection.isAll()) {
+            return fromJson(reader, type);
+        }
+        return convertValue(ProjectingJsonReader.read(reader, projection), type);
+    }
+
+    default <T> T fromJson(String json, Class<T> type, JsonProjection projection) throws JsonMapperException {
+        try {
+            return fromJson(new StringReader(json), type, projection);
+        } catch (IOException e) {
+            throw new JsonMapperException(e);
+        }
+    }
+
+    /**
+     * @return a sink parsing a UTF-8 document from chunks as they arrive, and binding it to the given type once complete
+     */
+    default <T> JsonByteSink<T> newJsonSink(Class<T> type) {
+        return new IncrementalJsonParser<>(this, type);
+    }
+
     default <T> T fromJson(InputStream is, Charset charset, Class<T> type) throws JsonMapperException, IOException {
         return fromJson(new InputStreamReader(is, charset), type);
     }
@@ -59,6 +93,72 @@ public interface JsonMapper {
         return fromJson(file, Object.class);
     };
 
+    /**
+     * Converts a tree of maps, lists and simple values to the given type
+     */
+    default <T> T convertValue(Object value, Class<T> type) throws JsonMapperException {
+        return fromJson(toJson(value), type);
+    }
+
+    /**
+     * Reads newline-delimited JSON lazily, one record per non blank line. Records are parsed as the stream is consumed,
+     * and in blocks of lines if the stream is made parallel. Closing the stream closes the reader.
+     */
+    default <T> Stream<T> fromJsonLines(Reader reader, Class<T> type) throws JsonMapperException {
+        BufferedReader lines = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        return fromJsonLines(lines.lines().onClose(() -> {
+            try {
+                lines.close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }), type);
+    }
+
+    default <T> Stream<T> fromJsonLines(InputStream is, Charset charset, Class<T> type) throws JsonMapperException {
+        return fromJsonLines(new InputStreamReader(is, charset), type);
+    }
+
+    /**
+     * Reads a UTF-8 newline-delimited JSON file lazily. Closing the stream closes the file.
+     */
+    default <T> Stream<T> fromJsonLines(Path file, Class<T> type) throws JsonMapperException, IOException {
+        return fromJsonLines(Files.lines(file, StandardCharsets.UTF_8), type);
+    }
+
+    default <T> Stream<T> fromJsonLines(Stream<String> lines, Class<T> type) throws JsonMapperException {
+        return lines.filter(line -> !line.trim().isEmpty()).map(line -> fromJson(line, type));
+    }
+
+    /**
+     * Loads a large newline-delimited JSON file, or a file holding a JSON array, parsing chunks of records in parallel
+     *
+     * @see ParallelJsonLoader
+     */
+    default <T> List<T> fromJsonParallel(Path file, Class<T> type) throws JsonMapperException, IOException {
+        return new ParallelJsonLoader(this).load(file, type);
+    }
+
+    /**
+     * Writes newline-delimited JSON, serializing the objects by batches sharing their buffers
+     */
+    default void toJsonLines(Stream<?> objects, Writer writer) throws JsonMapperException, IOException {
+        List<Object> batch = new ArrayList<>(JSON_LINES_BATCH_SIZE);
+        Iterator<?> it = objects.iterator();
+        while (it.hasNext()) {
+            batch.add(it.next());
+            if (batch.size() == JSON_LINES_BATCH_SIZE || !it.hasNext()) {
+                toJsonBatch(batch).writeLines(writer);
+                batch.clear();
+            }
+        }
+        writer.flush();
+    }
+
+    default void toJsonLines(Stream<?> objects, OutputStream os, Charset charset) throws JsonMapperException, IOException {
+        toJsonLines(objects, new BufferedWriter(new OutputStreamWriter(os, charset)));
+    }
+
     default JsonObject toJsonObject(Object o) throws JsonMapperException {
         try(JsonReader r = Json.createReader(new StringReader(toJson(o)))) {
             return r.readObject();
@@ -87,6 +187,30 @@ public interface JsonMapper {
         toJson(o, new OutputStreamWriter(os, charset));
     }
 
+    /**
+     * Serializes many objects at once, one document each
+     */
+    default JsonBatch toJsonBatch(Collection<?> objects) throws JsonMapperException {
+        StringBuilder sb = new StringBuilder();
+        int[] offsets = new int[objects.size() + 1];
+        int i = 0;
+        for (Object o : objects) {
+            sb.append(toJson(o));
+            offsets[++i] = sb.length();
+        }
+        char[] chars = new char[sb.length()];
+        sb.getChars(0, chars.length, chars, 0);
+        return new JsonBatch(chars, offsets);
+    }
+
+    /**
+     * @return a source filling buffers with the UTF-8 JSON of the given object. The default implementation serializes
+     * the whole object upfront.
+     */
+    default JsonByteSource toJsonSource(Object o) throws JsonMapperException {
+        return JsonByteSource.of(toJson(o).getBytes(StandardCharsets.UTF_8));
+    }
+
     default void toJson(Object o, File f) throws JsonMapperException, IOException {
         toJson(o, new FileOutputStream(f), StandardCharsets.UTF_8);
     }
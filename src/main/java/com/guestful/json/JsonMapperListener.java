@@ -0,0 +1,43 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.json;
+
+/**
+ * Receives the calls made through an {@link InstrumentedJsonMapper}.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public interface JsonMapperListener {
+
+    /**
+     * @param type   the type of the serialized object, or null
+     * @param length the number of chars (or bytes, when writing to a stream) produced
+     * @param nanos  the time spent serializing
+     */
+    default void onWrite(Class<?> type, long length, long nanos) {
+    }
+
+    /**
+     * @param type  the requested type
+     * @param nanos the time spent deserializing
+     */
+    default void onRead(Class<?> type, long nanos) {
+    }
+
+    default void onError(Class<?> type, Throwable error) {
+    }
+
+}
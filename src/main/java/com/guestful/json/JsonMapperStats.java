@@ -0,0 +1,229 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.json;
+
+import com.guestful.json.groovy.JsonWriterListener;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects serialization metrics, globally and per root type.
+ * <p>
+ * Mapper calls are recorded when this is the listener of an {@link InstrumentedJsonMapper}. Buffer growths and slow
+ * paths of the Groovy engine are recorded when this is also set as listener of the
+ * {@link com.guestful.json.groovy.GroovyJsonSerializer}. Metrics can be published through JMX with
+ * {@link #registerMBean(String)}.
+ * <p>
+ * Per type metrics are attached to the classes through a {@link ClassValue} and only weakly referenced from here, so
+ * that they do not keep classes, nor their class loader, from being unloaded.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class JsonMapperStats implements JsonMapperListener, JsonWriterListener, JsonMapperStatsMBean {
+
+    private final Queue<TypeStats> types = new ConcurrentLinkedQueue<>();
+    private final ClassValue<TypeStats> typeStats = new ClassValue<TypeStats>() {
+        @Override
+        protected TypeStats computeValue(Class<?> type) {
+            // new types are rare: this is where stats of unloaded classes are dropped
+            types.removeIf(stats -> stats.type.get() == null);
+            TypeStats stats = new TypeStats(type);
+            types.add(stats);
+            return stats;
+        }
+    };
+    private final LatencyHistogram writeLatency = new LatencyHistogram();
+    private final LatencyHistogram readLatency = new LatencyHistogram();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder writtenLength = new LongAdder();
+    private final LongAdder bufferGrowths = new LongAdder();
+    private final LongAdder serializerMisses = new LongAdder();
+    private final LongAdder beanFallbacks = new LongAdder();
+
+    private volatile ObjectName objectName;
+
+    @Override
+    public void onWrite(Class<?> type, long length, long nanos) {
+        writeLatency.record(nanos);
+        writtenLength.add(length);
+        TypeStats stats = statsOf(type);
+        stats.writeLatency.record(nanos);
+        stats.writtenLength.add(length);
+    }
+
+    @Override
+    public void onRead(Class<?> type, long nanos) {
+        readLatency.record(nanos);
+        statsOf(type).readLatency.record(nanos);
+    }
+
+    @Override
+    public void onError(Class<?> type, Throwable error) {
+        errors.increment();
+        statsOf(type).errors.increment();
+    }
+
+    @Override
+    public void onSerializerMiss(Class<?> type) {
+        serializerMisses.increment();
+    }
+
+    @Override
+    public void onBeanFallback(Class<?> type) {
+        beanFallbacks.increment();
+    }
+
+    @Override
+    public void onDocumentWritten(Class<?> rootType, int length, int bufferGrowths) {
+        this.bufferGrowths.add(bufferGrowths);
+    }
+
+    @Override
+    public long getWriteCount() {
+        return writeLatency.getCount();
+    }
+
+    @Override
+    public long getReadCount() {
+        return readLatency.getCount();
+    }
+
+    @Override
+    public long getErrorCount() {
+        return errors.sum();
+    }
+
+    @Override
+    public long getWrittenLength() {
+        return writtenLength.sum();
+    }
+
+    @Override
+    public long getBufferGrowthCount() {
+        return bufferGrowths.sum();
+    }
+
+    @Override
+    public long getSerializerMissCount() {
+        return serializerMisses.sum();
+    }
+
+    @Override
+    public long getBeanFallbackCount() {
+        return beanFallbacks.sum();
+    }
+
+    @Override
+    public String getWriteLatency() {
+        return writeLatency.toString();
+    }
+
+    @Override
+    public String getReadLatency() {
+        return readLatency.toString();
+    }
+
+    public LatencyHistogram getWriteLatencyHistogram() {
+        return writeLatency;
+    }
+
+    public LatencyHistogram getReadLatencyHistogram() {
+        return readLatency;
+    }
+
+    @Override
+    public String[] getTypeStats() {
+        return types.stream()
+            .filter(stats -> stats.type.get() != null)
+            .map(stats -> stats.name + ": " + stats)
+            .sorted()
+            .toArray(String[]::new);
+    }
+
+    @Override
+    public void reset() {
+        List<TypeStats> removed = new ArrayList<>(types);
+        types.removeAll(removed);
+        for (TypeStats stats : removed) {
+            Class<?> type = stats.type.get();
+            if (type != null) {
+                typeStats.remove(type);
+            }
+        }
+        writeLatency.reset();
+        readLatency.reset();
+        errors.reset();
+        writtenLength.reset();
+        bufferGrowths.reset();
+        serializerMisses.reset();
+        beanFallbacks.reset();
+    }
+
+    public ObjectName registerMBean(String name) throws JsonMapperException {
+        try {
+            ObjectName objectName = new ObjectName("com.guestful.json:type=JsonMapperStats,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            this.objectName = objectName;
+            return objectName;
+        } catch (JMException e) {
+            throw new JsonMapperException(e);
+        }
+    }
+
+    public void unregisterMBean() throws JsonMapperException {
+        ObjectName objectName = this.objectName;
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+                this.objectName = null;
+            } catch (JMException e) {
+                throw new JsonMapperException(e);
+            }
+        }
+    }
+
+    private TypeStats statsOf(Class<?> type) {
+        return typeStats.get(type == null ? Void.class : type);
+    }
+
+    private static final class TypeStats {
+        final WeakReference<Class<?>> type;
+        final String name;
+        final LatencyHistogram writeLatency = new LatencyHistogram();
+        final LatencyHistogram readLatency = new LatencyHistogram();
+        final LongAdder writtenLength = new LongAdder();
+        final LongAdder errors = new LongAdder();
+
+        TypeStats(Class<?> type) {
+            this.type = new WeakReference<>(type);
+            this.name = type.getName();
+        }
+
+        @Override
+        public String toString() {
+            return "writes={" + writeLatency + "}, length=" + writtenLength.sum() + ", reads={" + readLatency + "}, errors=" + errors.sum();
+        }
+    }
+
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.json;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A compiled field projection, such as the one of a {@code ?fields=} query parameter.
+ * <p>
+ * Paths are dot-separated field names, {@code *} matching any field. A path prefixed with {@code -} excludes its last
+ * field. As soon as one field of an object is included, the other fields of that object are dropped, unless matched
+ * by {@code *}. Included fields are written completely, unless nested paths are given for them.
+ * Projections apply to every element of arrays and collections, and are immutable once compiled.
+ * <pre>
+ * JsonProjection.parse("id,name,address.city")   // only id, name and the city of the address
+ * JsonProjection.parse("-password,-address.geo") // everything but the password and the geo of the address
+ * </pre>
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public final class JsonProjection {
+
+    public static final JsonProjection ALL = new JsonProjection(false, Collections.emptyMap(), Collections.emptySet());
+
+    private static final String ANY = "*";
+
+    private final boolean inclusive;
+    private final Map<String, JsonProjection> fields;
+    private final Set<String> excludes;
+
+    private JsonProjection(boolean inclusive, Map<String, JsonProjection> fields, Set<String> excludes) {
+        this.inclusive = inclusive;
+        this.fields = fields;
+        this.excludes = excludes;
+    }
+
+    /**
+     * @return the projection to apply to the value of the given field, or null if this field must not be written
+     */
+    public JsonProjection field(String name) {
+        if (excludes.contains(name) || excludes.contains(ANY)) return null;
+        JsonProjection field = fields.get(name);
+        if (field == null) field = fields.get(ANY);
+        if (field == null) return inclusive ? null : ALL;
+        return field;
+    }
+
+    public boolean isAll() {
+        return this == ALL;
+    }
+
+    /**
+     * @param fields comma-separated paths
+     */
+    public static JsonProjection parse(String fields) {
+        return of(fields.split(","));
+    }
+
+    public static JsonProjection of(String... paths) {
+        Node root = new Node();
+        for (String path : paths) {
+            path = path.trim();
+            if (path.isEmpty()) continue;
+            boolean exclude = path.charAt(0) == '-';
+            String[] names = (exclude ? path.substring(1) : path).split("\\.", -1);
+            Node node = root;
+            for (int i = 0; i < names.length; i++) {
+                String name = names[i].trim();
+                if (name.isEmpty()) {
+                    throw new IllegalArgumentException("Invalid projection path: " + path);
+                }
+                if (exclude && i == names.length - 1) {
+                    node.excludes.add(name);
+                } else {
+                    if (!exclude) node.inclusive = true;
+                    node = node.fields.computeIfAbsent(name, n -> new Node());
+                }
+            }
+        }
+        return root.compile();
+    }
+
+    private static final class Node {
+        boolean inclusive;
+        final Map<String, Node> fields = new HashMap<>();
+        final Set<String> excludes = new HashSet<>();
+
+        JsonProjection compile() {
+            if (!inclusive && fields.isEmpty() && excludes.isEmpty()) return ALL;
+            Map<String, JsonProjection> compiled = new HashMap<>();
+            for (Map.Entry<String, Node> entry : fields.entrySet()) {
+                compiled.put(entry.getKey(), entry.getValue().compile());
+            }
+            return new JsonProjection(inclusive, compiled, excludes);
+        }
+    }
+
+}
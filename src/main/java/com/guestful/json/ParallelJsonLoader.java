@@ -0,0 +1,316 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.json;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+
+/**
+ * Loads large files of records in parallel: newline-delimited JSON, or a single JSON array.
+ * <p>
+ * The file is memory-mapped and split into chunks of about {@link #setChunkSize(int)} bytes, at record boundaries:
+ * line ends for NDJSON, and commas between top-level elements for arrays. Array boundaries are found by a sequential
+ * scan of the bytes which only tracks strings and nesting depth. Chunks are then decoded and their records parsed
+ * with the {@link JsonMapper} on a {@link ForkJoinPool}. When records are handed over in file order, at most twice as
+ * many chunks as the pool parallelism are parsed ahead of the consumer, so that the records of the whole file do not
+ * pile up on the heap.
+ * <p>
+ * Unless {@link #setFormat(Format)} is called, a file starting with {@code [} is read as a JSON array, which must then
+ * be followed by whitespace only: newline-delimited records which are arrays require {@link Format#LINES}.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class ParallelJsonLoader {
+
+    public enum Format {
+        /**
+         * A single JSON array of records
+         */
+        ARRAY,
+        /**
+         * Newline-delimited JSON: one record per line
+         */
+        LINES
+    }
+
+    private static final int DEFAULT_CHUNK_SIZE = 4 * 1024 * 1024;
+    private static final int SCAN_WINDOW = 64 * 1024 * 1024;
+
+    private final JsonMapper mapper;
+
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private boolean ordered = true;
+    private Format format;
+
+    public ParallelJsonLoader(JsonMapper mapper) {
+        this.mapper = mapper;
+    }
+
+    public ParallelJsonLoader setPool(ForkJoinPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    public ParallelJsonLoader setChunkSize(int chunkSize) {
+        if (chunkSize <= 0) throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    /**
+     * @param ordered whether {@link #forEach(Path, Class, Consumer)} hands records over in file order, from the calling
+     *                thread, or as soon as their chunk is parsed, from the pool threads
+     */
+    public ParallelJsonLoader setOrdered(boolean ordered) {
+        this.ordered = ordered;
+        return this;
+    }
+
+    /**
+     * @param format the format of the files, or null to detect it from their first non-blank byte
+     */
+    public ParallelJsonLoader setFormat(Format format) {
+        this.format = format;
+        return this;
+    }
+
+    /**
+     * @return all records of the file, in file order
+     */
+    public <T> List<T> load(Path file, Class<T> type) throws JsonMapperException, IOException {
+        List<T> records = new ArrayList<>();
+        for (ForkJoinTask<List<T>> task : submit(file, type)) {
+            records.addAll(task.join());
+        }
+        return records;
+    }
+
+    public <T> void forEach(Path file, Class<T> type, Consumer<? super T> consumer) throws JsonMapperException, IOException {
+        if (ordered) {
+            int maxInFlight = 2 * pool.getParallelism();
+            Deque<ForkJoinTask<List<T>>> inFlight = new ArrayDeque<>(maxInFlight);
+            for (Chunk chunk : split(file)) {
+                if (inFlight.size() == maxInFlight) {
+                    inFlight.poll().join().forEach(consumer);
+                }
+                inFlight.add(pool.submit(() -> parse(chunk, type)));
+            }
+            while (!inFlight.isEmpty()) {
+                inFlight.poll().join().forEach(consumer);
+            }
+        } else {
+            List<ForkJoinTask<?>> tasks = new ArrayList<>();
+            for (Chunk chunk : split(file)) {
+                tasks.add(pool.submit(() -> parse(chunk, type).forEach(consumer)));
+            }
+            for (ForkJoinTask<?> task : tasks) {
+                task.join();
+            }
+        }
+    }
+
+    private <T> List<ForkJoinTask<List<T>>> submit(Path file, Class<T> type) throws IOException {
+        List<ForkJoinTask<List<T>>> tasks = new ArrayList<>();
+        for (Chunk chunk : split(file)) {
+            tasks.add(pool.submit(() -> parse(chunk, type)));
+        }
+        return tasks;
+    }
+
+    private <T> List<T> parse(Chunk chunk, Class<T> type) {
+        String text = StandardCharsets.UTF_8.decode(chunk.bytes).toString();
+        List<T> records = new ArrayList<>();
+        int start = 0;
+        if (chunk.array) {
+            int depth = 0;
+            boolean inString = false;
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (inString) {
+                    if (c == '\\') i++;
+                    else if (c == '"') inString = false;
+                } else if (c == '"') {
+                    inString = true;
+                } else if (c == '{' || c == '[') {
+                    depth++;
+                } else if (c == '}' || c == ']') {
+                    depth--;
+                } else if (c == ',' && depth == 0) {
+                    addRecord(records, text, start, i, type, true);
+                    start = i + 1;
+                }
+            }
+        } else {
+            for (int i = text.indexOf('\n'); i != -1; i = text.indexOf('\n', start)) {
+                addRecord(records, text, start, i, type, false);
+                start = i + 1;
+            }
+        }
+        addRecord(records, text, start, text.length(), type, chunk.array);
+        return records;
+    }
+
+    /**
+     * @param required whether the record is an array element, which cannot be empty, unlike a blank line
+     */
+    private <T> void addRecord(List<T> records, String text, int start, int end, Class<T> type, boolean required) {
+        String record = text.substring(start, end).trim();
+        if (!record.isEmpty()) {
+            records.add(mapper.fromJson(record, type));
+        } else if (required) {
+            throw new JsonMapperException("Empty element in JSON array");
+        }
+    }
+
+    private List<Chunk> split(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long start = 0;
+            int first;
+            while ((first = byteAt(channel, start)) != -1 && first <= ' ') {
+                start++;
+            }
+            Format format = this.format != null ? this.format : first == '[' ? Format.ARRAY : Format.LINES;
+            if (format == Format.LINES) {
+                return splitLines(channel, start, size);
+            }
+            if (first != '[') {
+                throw new JsonMapperException("Expected a JSON array at byte " + start);
+            }
+            return splitArray(channel, start + 1, size);
+        }
+    }
+
+    private List<Chunk> splitLines(FileChannel channel, long start, long size) throws IOException {
+        List<Chunk> chunks = new ArrayList<>();
+        while (start < size) {
+            long end = start + chunkSize;
+            if (end >= size) {
+                end = size;
+            } else {
+                end = lineEnd(channel, end, size);
+            }
+            chunks.add(new Chunk(channel.map(FileChannel.MapMode.READ_ONLY, start, end - start), false));
+            start = end;
+        }
+        return chunks;
+    }
+
+    private List<Chunk> splitArray(FileChannel channel, long start, long size) throws IOException {
+        List<Chunk> chunks = new ArrayList<>();
+        long chunkStart = start;
+        int depth = 0;
+        boolean inString = false;
+        boolean escaped = false;
+        for (long window = start; window < size; window += SCAN_WINDOW) {
+            MappedByteBuffer bytes = channel.map(FileChannel.MapMode.READ_ONLY, window, Math.min(SCAN_WINDOW, size - window));
+            for (int i = 0, length = bytes.limit(); i < length; i++) {
+                byte b = bytes.get(i);
+                if (inString) {
+                    if (escaped) escaped = false;
+                    else if (b == '\\') escaped = true;
+                    else if (b == '"') inString = false;
+                } else if (b == '"') {
+                    inString = true;
+                } else if (b == '{' || b == '[') {
+                    depth++;
+                } else if (b == '}' || b == ']') {
+                    if (depth-- == 0) {
+                        ByteBuffer last = channel.map(FileChannel.MapMode.READ_ONLY, chunkStart, window + i - chunkStart);
+                        // only an empty array may end with a blank chunk: otherwise it is an empty element, as in [1,]
+                        if (!chunks.isEmpty() || !isBlank(last)) {
+                            chunks.add(new Chunk(last, true));
+                        }
+                        checkEnd(channel, window + i + 1, size);
+                        return chunks;
+                    }
+                } else if (b == ',' && depth == 0 && window + i - chunkStart >= chunkSize) {
+                    chunks.add(new Chunk(channel.map(FileChannel.MapMode.READ_ONLY, chunkStart, window + i - chunkStart), true));
+                    chunkStart = window + i + 1;
+                }
+            }
+        }
+        throw new JsonMapperException("Unterminated JSON array");
+    }
+
+    private static long lineEnd(FileChannel channel, long position, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) break;
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return position + i;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    private static void checkEnd(FileChannel channel, long position, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            if (read <= 0) break;
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) > ' ') {
+                    throw new JsonMapperException("Unexpected content after the JSON array at byte " + (position + i)
+                        + ": newline-delimited records which are arrays require Format.LINES");
+                }
+            }
+            position += read;
+        }
+    }
+
+    private static boolean isBlank(ByteBuffer bytes) {
+        for (int i = 0, length = bytes.limit(); i < length; i++) {
+            if (bytes.get(i) > ' ') return false;
+        }
+        return true;
+    }
+
+    private static int byteAt(FileChannel channel, long position) throws IOException {
+        ByteBuffer b = ByteBuffer.allocate(1);
+        return channel.read(b, position) <= 0 ? -1 : b.get(0) & 0xff;
+    }
+
+    private static final class Chunk {
+        final ByteBuffer bytes;
+        final boolean array;
+
+        Chunk(ByteBuffer bytes, boolean array) {
+            this.bytes = bytes;
+            this.array = array;
+        }
+    }
+
+}
@@ -0,0 +1,285 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.json;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads a JSON document into maps, lists, strings, numbers and booleans, keeping only the fields selected by a
+ * {@link JsonProjection}.
+ * <p>
+ * Values of the fields which are not selected are skipped lexically, by counting brackets and quotes: no string,
+ * number or container is built for them.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+final class ProjectingJsonReader {
+
+    private final Reader reader;
+    private final char[] buffer = new char[8192];
+    private final StringBuilder text = new StringBuilder();
+
+    private int position;
+    private int limit;
+    private long offset;
+
+    private ProjectingJsonReader(Reader reader) {
+        this.reader = reader;
+    }
+
+    static Object read(Reader reader, JsonProjection projection) throws IOException {
+        ProjectingJsonReader r = new ProjectingJsonReader(reader);
+        Object value = r.readValue(projection == null ? JsonProjection.ALL : projection);
+        if (r.nextToken() != -1) {
+            throw r.error("Unexpected content after JSON document");
+        }
+        return value;
+    }
+
+    private Object readValue(JsonProjection projection) throws IOException {
+        int c = nextToken();
+        switch (c) {
+            case '{':
+                return readObject(projection);
+            case '[':
+                return readArray(projection);
+            case '"':
+                return readString();
+            case 't':
+                expect("rue");
+                return Boolean.TRUE;
+            case 'f':
+                expect("alse");
+                return Boolean.FALSE;
+            case 'n':
+                expect("ull");
+                return null;
+            case -1:
+                throw error("Unexpected end of JSON document");
+            default:
+                if (c == '-' || c >= '0' && c <= '9') {
+                    return readNumber(c);
+                }
+                throw error("Unexpected character '" + (char) c + "'");
+        }
+    }
+
+    private Map<String, Object> readObject(JsonProjection projection) throws IOException {
+        Map<String, Object> map = new LinkedHashMap<>();
+        int c = nextToken();
+        if (c == '}') return map;
+        while (true) {
+            if (c != '"') throw error("Expected a field name");
+            String name = readString();
+            if (nextToken() != ':') throw error("Expected ':' after field name");
+            JsonProjection field = projection.field(name);
+            if (field == null) {
+                skipValue();
+            } else {
+                map.put(name, readValue(field));
+            }
+            c = nextToken();
+            if (c == '}') return map;
+            if (c != ',') throw error("Expected ',' or '}'");
+            c = nextToken();
+        }
+    }
+
+    private List<Object> readArray(JsonProjection projection) throws IOException {
+        List<Object> list = new ArrayList<>();
+        int c = nextToken();
+        if (c == ']') return list;
+        if (c != -1) position--;
+        while (true) {
+            list.add(readValue(projection));
+            c = nextToken();
+            if (c == ']') return list;
+            if (c != ',') throw error("Expected ',' or ']'");
+        }
+    }
+
+    private String readString() throws IOException {
+        text.setLength(0);
+        while (true) {
+            int c = next();
+            switch (c) {
+                case '"':
+                    return text.toString();
+                case '\\':
+                    text.append(readEscape());
+                    break;
+                case -1:
+                    throw error("Unterminated string");
+                default:
+                    text.append((char) c);
+            }
+        }
+    }
+
+    private char readEscape() throws IOException {
+        int c = next();
+        switch (c) {
+            case '"':
+            case '\\':
+            case '/':
+                return (char) c;
+            case 'b':
+                return '\b';
+            case 'f':
+                return '\f';
+            case 'n':
+                return '\n';
+            case 'r':
+                return '\r';
+            case 't':
+                return '\t';
+            case 'u':
+                int code = 0;
+                for (int i = 0; i < 4; i++) {
+                    int digit = Character.digit(next(), 16);
+                    if (digit < 0) throw error("Invalid unicode escape");
+                    code = (code << 4) | digit;
+                }
+                return (char) code;
+            default:
+                throw error("Invalid escape sequence");
+        }
+    }
+
+    private Number readNumber(int first) throws IOException {
+        text.setLength(0);
+        text.append((char) first);
+        boolean decimal = false;
+        int c;
+        while ((c = next()) != -1) {
+            if (c >= '0' && c <= '9' || c == '-' || c == '+') {
+                text.append((char) c);
+            } else if (c == '.' || c == 'e' || c == 'E') {
+                decimal = true;
+                text.append((char) c);
+            } else {
+                position--;
+                break;
+            }
+        }
+        try {
+            return toNumber(text.toString(), decimal);
+        } catch (NumberFormatException e) {
+            throw error("Invalid number " + text);
+        }
+    }
+
+    /**
+     * @return the smallest of Integer, Long and BigInteger holding an integral number, or a BigDecimal
+     */
+    static Number toNumber(String number, boolean decimal) throws NumberFormatException {
+        if (decimal) return new BigDecimal(number);
+        if (number.length() < 10) return Integer.parseInt(number);
+        BigInteger value = new BigInteger(number);
+        if (value.bitLength() < 32) return value.intValue();
+        if (value.bitLength() < 64) return value.longValue();
+        return value;
+    }
+
+    /**
+     * Skips the next value without decoding it
+     */
+    private void skipValue() throws IOException {
+        int c = nextToken();
+        if (c == '"') {
+            skipString();
+        } else if (c == '{' || c == '[') {
+            int depth = 1;
+            while (depth > 0) {
+                c = next();
+                switch (c) {
+                    case '"':
+                        skipString();
+                        break;
+                    case '{':
+                    case '[':
+                        depth++;
+                        break;
+                    case '}':
+                    case ']':
+                        depth--;
+                        break;
+                    case -1:
+                        throw error("Unexpected end of JSON document");
+                }
+            }
+        } else if (c == -1) {
+            throw error("Unexpected end of JSON document");
+        } else {
+            while ((c = next()) != -1) {
+                if (c == ',' || c == '}' || c == ']' || c <= ' ') {
+                    position--;
+                    return;
+                }
+            }
+        }
+    }
+
+    private void skipString() throws IOException {
+        int c;
+        while ((c = next()) != '"') {
+            if (c == '\\') {
+                next();
+            } else if (c == -1) {
+                throw error("Unterminated string");
+            }
+        }
+    }
+
+    private void expect(String rest) throws IOException {
+        for (int i = 0; i < rest.length(); i++) {
+            if (next() != rest.charAt(i)) throw error("Invalid literal");
+        }
+    }
+
+    private int nextToken() throws IOException {
+        int c;
+        do {
+            c = next();
+        } while (c == ' ' || c == '\n' || c == '\r' || c == '\t');
+        return c;
+    }
+
+    private int next() throws IOException {
+        if (position == limit) {
+            offset += limit;
+            limit = reader.read(buffer, 0, buffer.length);
+            position = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+        }
+        return buffer[position++];
+    }
+
+    private JsonMapperException error(String message) {
+        return new JsonMapperException(message + " at position " + (offset + position));
+    }
+
+}
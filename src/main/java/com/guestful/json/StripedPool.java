@@ -0,0 +1,81 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.json;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+/**
+ * Lock-free pool of reusable, non thread-safe objects such as parsers or buffers.
+ * <p>
+ * Slots are probed from an index derived from the current thread, so that concurrent threads rarely compete for the
+ * same slot. Borrowing never blocks: a new object is created when no pooled one is found, and released objects are
+ * dropped when the probed slots are full. No {@link ThreadLocal} is involved, so the memory held is bounded by the pool
+ * size whatever the number of threads.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class StripedPool<T> {
+
+    private static final int PROBES = 4;
+
+    private final AtomicReferenceArray<T> slots;
+    private final Supplier<? extends T> factory;
+    private final int mask;
+
+    public StripedPool(Supplier<? extends T> factory) {
+        this(Runtime.getRuntime().availableProcessors() * 2, factory);
+    }
+
+    public StripedPool(int size, Supplier<? extends T> factory) {
+        int capacity = Integer.highestOneBit(Math.max(1, size - 1)) << 1;
+        this.slots = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+        this.factory = factory;
+    }
+
+    public T borrow() {
+        int index = probe();
+        for (int i = 0; i < PROBES; i++, index++) {
+            int slot = index & mask;
+            T o = slots.get(slot);
+            if (o != null && slots.compareAndSet(slot, o, null)) {
+                return o;
+            }
+        }
+        return factory.get();
+    }
+
+    public void release(T o) {
+        int index = probe();
+        for (int i = 0; i < PROBES; i++, index++) {
+            int slot = index & mask;
+            if (slots.get(slot) == null && slots.compareAndSet(slot, null, o)) {
+                return;
+            }
+        }
+    }
+
+    public int size() {
+        return slots.length();
+    }
+
+    private static int probe() {
+        long id = Thread.currentThread().getId();
+        return (int) (id ^ (id >>> 32)) * 0x9E3779B9;
+    }
+
+}
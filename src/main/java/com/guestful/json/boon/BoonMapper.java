@@ -17,6 +17,8 @@ package com.guestful.json.boon;
 
 import com.guestful.json.JsonMapper;
 import com.guestful.json.JsonMapperException;
+import com.guestful.json.StripedPool;
+import com.guestful.json.groovy.SerializerRepository;
 import org.boon.json.JsonParserFactory;
 import org.boon.json.JsonSerializerFactory;
 import org.boon.json.ObjectMapper;
@@ -25,32 +27,74 @@ import org.boon.json.implementation.ObjectMapperImpl;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.Writer;
+import java.util.function.Function;
+import java.util.function.Supplier;
 
 /**
+ * Boon parsers and serializers keep buffers between calls and can't be used by several threads at once: each call
+ * borrows its own {@link ObjectMapper} from a pool, created by the given factory when none is available.
+ *
  * @author Mathieu Carbou (mathieu.carbou@gmail.com)
  */
 public class BoonMapper implements JsonMapper {
 
-    private final ObjectMapper mapper;
+    private final StripedPool<ObjectMapper> mappers;
 
+    /**
+     * The given mapper is shared by all threads, so it must be thread-safe
+     */
     public BoonMapper(ObjectMapper mapper) {
-        this.mapper = mapper;
+        this(() -> mapper);
+    }
+
+    public BoonMapper(Supplier<? extends ObjectMapper> factory) {
+        this.mappers = new StripedPool<>(factory);
     }
 
     public BoonMapper() {
-        mapper = new ObjectMapperImpl(
+        this(() -> new ObjectMapperImpl(
             new JsonParserFactory().lax(),
-            new JsonSerializerFactory());
+            new JsonSerializerFactory()));
+    }
+
+    /**
+     * Serializes the given types with the serializers of the repository, such as a GroovyJsonSerializer
+     */
+    public BoonMapper(SerializerRepository repository, Class<?>... types) {
+        this(() -> new ObjectMapperImpl(
+            new JsonParserFactory().lax(),
+            BoonTypeSerializer.addTypeSerializers(new JsonSerializerFactory(), repository, types)));
+    }
+
+    @Override
+    public <T> T fromJson(String json, Class<T> type) throws JsonMapperException {
+        return call(mapper -> mapper.fromJson(json, type));
     }
 
     @Override
     public <T> T fromJson(Reader reader, Class<T> type) throws JsonMapperException, IOException {
-        return mapper.fromJson(reader, type);
+        return call(mapper -> mapper.fromJson(reader, type));
+    }
+
+    @Override
+    public String toJson(Object o) throws JsonMapperException {
+        return call(mapper -> mapper.toJson(o));
     }
 
     @Override
     public void toJson(Object o, Writer writer) throws JsonMapperException, IOException {
-        mapper.toJson(o, writer);
+        call(mapper -> {
+            mapper.toJson(o, writer);
+            return null;
+        });
+    }
+
+    private <R> R call(Function<ObjectMapper, R> function) {
+        ObjectMapper mapper = mappers.borrow();
+        R result = function.apply(mapper);
+        // a mapper which failed may be left in an inconsistent state: it is dropped
+        mappers.release(mapper);
+        return result;
     }
 
 }
@@ -0,0 +1,117 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.json.boon;
+
+import com.guestful.json.groovy.JsonTypeSerializer;
+import com.guestful.json.groovy.JsonWriter;
+import com.guestful.json.groovy.SerializerRepository;
+import org.boon.json.JsonSerializerFactory;
+import org.boon.json.serializers.CustomObjectSerializer;
+import org.boon.json.serializers.JsonSerializerInternal;
+import org.boon.primitive.CharBuf;
+
+/**
+ * Boon custom serializer rendering a type with the {@link JsonTypeSerializer} found for it in a
+ * {@link SerializerRepository}, such as a {@link com.guestful.json.groovy.GroovyJsonSerializer}.
+ * <p>
+ * Like the Jackson bridge, nested objects are handed back to Boon, and null map values are kept only if the Boon
+ * serializer includes nulls.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class BoonTypeSerializer<T> implements CustomObjectSerializer<T> {
+
+    private final SerializerRepository repository;
+    private final Class<T> type;
+    private final boolean ignoreMapNullValues;
+
+    public BoonTypeSerializer(SerializerRepository repository, Class<T> type) {
+        this(repository, type, true);
+    }
+
+    /**
+     * @param ignoreMapNullValues true unless the Boon serializer is configured with includeNulls()
+     */
+    public BoonTypeSerializer(SerializerRepository repository, Class<T> type, boolean ignoreMapNullValues) {
+        this.repository = repository;
+        this.type = type;
+        this.ignoreMapNullValues = ignoreMapNullValues;
+    }
+
+    @Override
+    public Class<T> type() {
+        return type;
+    }
+
+    @Override
+    public void serializeObject(JsonSerializerInternal serializer, T instance, CharBuf builder) {
+        JsonTypeSerializer<T> typeSerializer = repository.findSerializer(instance.getClass());
+        if (typeSerializer == null) {
+            throw new IllegalArgumentException("No serializer registered for " + instance.getClass().getName());
+        }
+        BuilderJsonWriter writer = new BuilderJsonWriter(repository, ignoreMapNullValues, serializer, builder);
+        typeSerializer.write(instance, writer);
+        writer.moveToBuilder();
+    }
+
+    /**
+     * Bridges the given types to the repository. The factory must be configured first, since whether it includes
+     * nulls is read now.
+     */
+    @SuppressWarnings("unchecked")
+    public static JsonSerializerFactory addTypeSerializers(JsonSerializerFactory factory, SerializerRepository repository, Class<?>... types) {
+        for (Class<?> type : types) {
+            factory.addTypeSerializer((Class<Object>) type, new BoonTypeSerializer<>(repository, (Class<Object>) type, !factory.isIncludeNulls()));
+        }
+        return factory;
+    }
+
+    /**
+     * Writes the structure of the serialized type to the Boon buffer, and hands nested objects back to Boon
+     */
+    private static final class BuilderJsonWriter extends JsonWriter {
+        final com.guestful.json.groovy.CharBuf pending;
+        final JsonSerializerInternal serializer;
+        final CharBuf builder;
+
+        BuilderJsonWriter(SerializerRepository repository, boolean ignoreMapNullValues, JsonSerializerInternal serializer, CharBuf builder) {
+            this(repository, ignoreMapNullValues, com.guestful.json.groovy.CharBuf.create(64), serializer, builder);
+        }
+
+        private BuilderJsonWriter(SerializerRepository repository, boolean ignoreMapNullValues, com.guestful.json.groovy.CharBuf pending, JsonSerializerInternal serializer, CharBuf builder) {
+            super(repository, ignoreMapNullValues, pending);
+            this.pending = pending;
+            this.serializer = serializer;
+            this.builder = builder;
+        }
+
+        @Override
+        public JsonWriter writeObject(Object object) {
+            if (object == null) {
+                return writeNull();
+            }
+            moveToBuilder();
+            serializer.serializeObject(object, builder);
+            return this;
+        }
+
+        void moveToBuilder() {
+            builder.write(pending.toCharArray(), 0, pending.len());
+            pending.recycle();
+        }
+    }
+
+}
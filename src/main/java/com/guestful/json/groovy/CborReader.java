@@ -0,0 +1,260 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.json.groovy;
+
+import com.guestful.json.JsonMapperException;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads one CBOR (RFC 7049) data item into the same kind of objects {@link groovy.json.JsonSlurper} produces: maps,
+ * lists, strings, numbers, booleans and null. Byte strings are read as byte arrays and unknown tags are ignored.
+ * <p>
+ * The input is not trusted: declared lengths only grow buffers as bytes actually arrive, and nesting is limited by
+ * {@link #setMaxDepth(int)}.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class CborReader {
+
+    private static final Object BREAK = new Object();
+    private static final int DEFAULT_MAX_DEPTH = 1000;
+    // strings up to this length are read in an array of their declared length, longer ones as their bytes arrive
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final InputStream is;
+    private int maxDepth = DEFAULT_MAX_DEPTH;
+    private int depth;
+
+    public CborReader(InputStream is) {
+        this.is = is instanceof BufferedInputStream || is instanceof ByteArrayInputStream ? is : new BufferedInputStream(is);
+    }
+
+    public CborReader setMaxDepth(int maxDepth) {
+        if (maxDepth <= 0) throw new IllegalArgumentException("maxDepth must be positive: " + maxDepth);
+        this.maxDepth = maxDepth;
+        return this;
+    }
+
+    public Object read() throws JsonMapperException, IOException {
+        Object o = readItem();
+        if (o == BREAK) throw new JsonMapperException("Unexpected CBOR break");
+        return o;
+    }
+
+    private Object readItem() throws IOException {
+        if (++depth > maxDepth) throw new JsonMapperException("CBOR nesting deeper than " + maxDepth);
+        try {
+            return readItem(readByte());
+        } finally {
+            depth--;
+        }
+    }
+
+    private Object readItem(int initial) throws IOException {
+        int majorType = initial >>> 5;
+        int info = initial & 0x1f;
+        switch (majorType) {
+            case 0:
+                return toNumber(readLength(info), false);
+            case 1:
+                return toNumber(readLength(info), true);
+            case 2:
+                return readBytes(info);
+            case 3:
+                return new String(readBytes(info), StandardCharsets.UTF_8);
+            case 4: {
+                List<Object> list = new ArrayList<>();
+                if (info == 31) {
+                    for (Object o = readItem(); o != BREAK; o = readItem()) {
+                        list.add(o);
+                    }
+                } else {
+                    for (long n = readCount(info); n > 0; n--) {
+                        list.add(read());
+                    }
+                }
+                return list;
+            }
+            case 5: {
+                Map<String, Object> map = new LinkedHashMap<>();
+                if (info == 31) {
+                    for (Object key = readItem(); key != BREAK; key = readItem()) {
+                        map.put(String.valueOf(key), read());
+                    }
+                } else {
+                    for (long n = readCount(info); n > 0; n--) {
+                        map.put(String.valueOf(read()), read());
+                    }
+                }
+                return map;
+            }
+            case 6:
+                return readTagged(readLength(info));
+            default:
+                return readSimple(info);
+        }
+    }
+
+    private Object readTagged(long tag) throws IOException {
+        Object content = read();
+        if (tag == 2 || tag == 3) {
+            if (!(content instanceof byte[])) throw new JsonMapperException("Invalid CBOR bignum");
+            BigInteger magnitude = new BigInteger(1, (byte[]) content);
+            return tag == 2 ? magnitude : magnitude.add(BigInteger.ONE).negate();
+        }
+        if (tag == 4) {
+            if (!(content instanceof List) || ((List<?>) content).size() != 2) throw new JsonMapperException("Invalid CBOR decimal fraction");
+            List<?> fraction = (List<?>) content;
+            int exponent = ((Number) fraction.get(0)).intValue();
+            Object mantissa = fraction.get(1);
+            BigInteger unscaled = mantissa instanceof BigInteger ? (BigInteger) mantissa : BigInteger.valueOf(((Number) mantissa).longValue());
+            return new BigDecimal(unscaled, -exponent);
+        }
+        return content;
+    }
+
+    private Object readSimple(int info) throws IOException {
+        switch (info) {
+            case 20:
+                return false;
+            case 21:
+                return true;
+            case 22:
+            case 23:
+                return null;
+            case 25:
+                return (double) halfToFloat((int) readLength(info));
+            case 26:
+                return (double) Float.intBitsToFloat((int) readLength(info));
+            case 27:
+                return Double.longBitsToDouble(readLength(info));
+            case 31:
+                return BREAK;
+            default:
+                throw new JsonMapperException("Unsupported CBOR simple value: " + info);
+        }
+    }
+
+    private byte[] readBytes(int info) throws IOException {
+        if (info == 31) {
+            ByteArrayOutputStream chunks = new ByteArrayOutputStream();
+            for (Object chunk = readItem(); chunk != BREAK; chunk = readItem()) {
+                byte[] b = chunk instanceof String ? ((String) chunk).getBytes(StandardCharsets.UTF_8) : (byte[]) chunk;
+                chunks.write(b, 0, b.length);
+            }
+            return chunks.toByteArray();
+        }
+        long length = readCount(info);
+        if (length > Integer.MAX_VALUE - 8) throw new JsonMapperException("CBOR string too long: " + length);
+        if (length <= CHUNK_SIZE) {
+            byte[] b = new byte[(int) length];
+            readFully(b, b.length);
+            return b;
+        }
+        // the declared length is not trusted: memory is only used for the bytes which are really there
+        ByteArrayOutputStream out = new ByteArrayOutputStream(CHUNK_SIZE);
+        byte[] chunk = new byte[CHUNK_SIZE];
+        for (long remaining = length; remaining > 0; ) {
+            int n = (int) Math.min(remaining, chunk.length);
+            readFully(chunk, n);
+            out.write(chunk, 0, n);
+            remaining -= n;
+        }
+        return out.toByteArray();
+    }
+
+    private void readFully(byte[] b, int length) throws IOException {
+        int off = 0;
+        while (off < length) {
+            int n = is.read(b, off, length - off);
+            if (n < 0) throw new JsonMapperException("Unexpected end of CBOR input");
+            off += n;
+        }
+    }
+
+    /**
+     * Reads the length of a string or the size of a collection, which is an unsigned value
+     */
+    private long readCount(int info) throws IOException {
+        long count = readLength(info);
+        if (count < 0) throw new JsonMapperException("CBOR length too large: " + Long.toUnsignedString(count));
+        return count;
+    }
+
+    private long readLength(int info) throws IOException {
+        if (info < 24) return info;
+        int size;
+        switch (info) {
+            case 24:
+                size = 1;
+                break;
+            case 25:
+                size = 2;
+                break;
+            case 26:
+                size = 4;
+                break;
+            case 27:
+                size = 8;
+                break;
+            default:
+                throw new JsonMapperException("Invalid CBOR length: " + info);
+        }
+        long value = 0;
+        for (int i = 0; i < size; i++) {
+            value = (value << 8) | readByte();
+        }
+        return value;
+    }
+
+    private int readByte() throws IOException {
+        int b = is.read();
+        if (b < 0) throw new JsonMapperException("Unexpected end of CBOR input");
+        return b;
+    }
+
+    private static Object toNumber(long value, boolean negative) {
+        if (value < 0) {
+            // unsigned 64 bits value above Long.MAX_VALUE
+            BigInteger big = BigInteger.valueOf(value & Long.MAX_VALUE).setBit(63);
+            return negative ? big.add(BigInteger.ONE).negate() : big;
+        }
+        long n = negative ? -1 - value : value;
+        return n >= Integer.MIN_VALUE && n <= Integer.MAX_VALUE ? (Object) (int) n : (Object) n;
+    }
+
+    private static float halfToFloat(int half) {
+        int exponent = (half >>> 10) & 0x1f;
+        int mantissa = half & 0x3ff;
+        float value = exponent == 0 ? mantissa * 0x1p-24f
+            : exponent == 31 ? (mantissa == 0 ? Float.POSITIVE_INFINITY : Float.NaN)
+            : (1 + mantissa / 1024f) * (float) Math.pow(2, exponent - 15);
+        return (half & 0x8000) != 0 ? -value : value;
+    }
+
+}
@@ -0,0 +1,400 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.json.groovy;
+
+import groovy.json.JsonSlurper;
+
+import javax.json.JsonException;
+import javax.json.JsonValue;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * A {@link JsonWriter} producing CBOR (RFC 7049) instead of JSON text, so that all registered
+ * {@link JsonTypeSerializer} can be reused for binary exchanges.
+ * <p>
+ * Maps and iterators are written with indefinite lengths, arrays with definite lengths. Big integers and decimals use
+ * the bignum and decimal fraction tags. Dates are written as the same strings as in JSON. Raw JSON fragments are parsed
+ * and re-encoded.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class CborWriter extends JsonWriter {
+
+    private static final int UNSIGNED = 0;
+    private static final int NEGATIVE = 1 << 5;
+    private static final int BYTES = 2 << 5;
+    private static final int TEXT = 3 << 5;
+    private static final int ARRAY = 4 << 5;
+    private static final int MAP = 5 << 5;
+    private static final int TAG = 6 << 5;
+
+    private static final int FALSE = 0xf4;
+    private static final int TRUE = 0xf5;
+    private static final int NULL = 0xf6;
+    private static final int FLOAT = 0xfa;
+    private static final int DOUBLE = 0xfb;
+    private static final int INDEFINITE = 0x1f;
+    private static final int BREAK = 0xff;
+
+    private static final int TAG_POSITIVE_BIGNUM = 2;
+    private static final int TAG_NEGATIVE_BIGNUM = 3;
+    private static final int TAG_DECIMAL_FRACTION = 4;
+
+    private static final BigInteger MIN_LONG = BigInteger.valueOf(Long.MIN_VALUE);
+    private static final BigInteger MAX_LONG = BigInteger.valueOf(Long.MAX_VALUE);
+
+    private byte[] bytes = new byte[255];
+    private int length;
+
+    public CborWriter(SerializerRepository serializerRepository, boolean ignoreMapNullValues) {
+        super(serializerRepository, ignoreMapNullValues);
+    }
+
+    @Override
+    public JsonWriter writeEscapedString(char[] chars) {
+        return writeText(new String(chars));
+    }
+
+    @Override
+    public JsonWriter writeEscapedString(CharSequence s) {
+        return writeText(s.toString());
+    }
+
+    @Override
+    public JsonWriter writeString(CharSequence s) {
+        return writeText(s.toString());
+    }
+
+    @Override
+    public JsonWriter writeString(QuotedString s) {
+        return writeText(s.getValue());
+    }
+
+    /**
+     * Raw JSON is parsed: numbers are kept as numbers and other values re-encoded as CBOR
+     */
+    @Override
+    public JsonWriter writeRaw(String s) {
+        BigDecimal number;
+        try {
+            number = new BigDecimal(s);
+        } catch (NumberFormatException e) {
+            return writeObject(new JsonSlurper().parseText(s));
+        }
+        return number.scale() <= 0 ? writeBigInteger(number.toBigIntegerExact()) : writeBigDecimal(number);
+    }
+
+    @Override
+    public JsonWriter writeRawJson(RawJson o) {
+        return writeRaw(o.toString());
+    }
+
+    @Override
+    public JsonWriter writeJsonValue(JsonValue o) {
+        return writeRaw(o.toString());
+    }
+
+    @Override
+    public JsonWriter writeBoolean(Boolean o) {
+        return putByte(o ? TRUE : FALSE);
+    }
+
+    @Override
+    public JsonWriter writeDouble(Double key) {
+        ensure(9);
+        bytes[length++] = (byte) DOUBLE;
+        putLong(Double.doubleToLongBits(key));
+        return this;
+    }
+
+    @Override
+    public JsonWriter writeFloat(Float key) {
+        ensure(5);
+        bytes[length++] = (byte) FLOAT;
+        int bits = Float.floatToIntBits(key);
+        bytes[length++] = (byte) (bits >>> 24);
+        bytes[length++] = (byte) (bits >>> 16);
+        bytes[length++] = (byte) (bits >>> 8);
+        bytes[length++] = (byte) bits;
+        return this;
+    }
+
+    @Override
+    public JsonWriter writeInt(Integer key) {
+        return writeInteger(key);
+    }
+
+    @Override
+    public JsonWriter writeShort(Short key) {
+        return writeInteger(key);
+    }
+
+    @Override
+    public JsonWriter writeByte(Byte key) {
+        return writeInteger(key);
+    }
+
+    @Override
+    public JsonWriter writeLong(Long key) {
+        return writeInteger(key);
+    }
+
+    @Override
+    public JsonWriter writeBigInteger(BigInteger key) {
+        if (key.compareTo(MIN_LONG) >= 0 && key.compareTo(MAX_LONG) <= 0) {
+            return writeInteger(key.longValue());
+        }
+        byte[] magnitude;
+        if (key.signum() > 0) {
+            writeHead(TAG, TAG_POSITIVE_BIGNUM);
+            magnitude = key.toByteArray();
+        } else {
+            writeHead(TAG, TAG_NEGATIVE_BIGNUM);
+            magnitude = key.negate().subtract(BigInteger.ONE).toByteArray();
+        }
+        // drop the sign byte of the two's complement representation
+        int offset = magnitude[0] == 0 ? 1 : 0;
+        writeHead(BYTES, magnitude.length - offset);
+        putBytes(magnitude, offset, magnitude.length - offset);
+        return this;
+    }
+
+    @Override
+    public JsonWriter writeBigDecimal(BigDecimal key) {
+        writeHead(TAG, TAG_DECIMAL_FRACTION);
+        writeHead(ARRAY, 2);
+        writeInteger(-key.scale());
+        return writeBigInteger(key.unscaledValue());
+    }
+
+    @Override
+    public JsonWriter writeNull() {
+        return putByte(NULL);
+    }
+
+    @Override
+    public JsonWriter writeUtcDateTime(long epochSecond) {
+        return writeQuotedText(newWriter().writeUtcDateTime(epochSecond).toString());
+    }
+
+    @Override
+    public JsonWriter writeOffsetDateTime(OffsetDateTime o) {
+        return writeQuotedText(newWriter().writeOffsetDateTime(o).toString());
+    }
+
+    @Override
+    public JsonWriter writeZonedDateTime(ZonedDateTime o) {
+        return writeQuotedText(newWriter().writeZonedDateTime(o).toString());
+    }
+
+    @Override
+    public JsonWriter writeIterator(Iterator<?> o) {
+        putByte(ARRAY | INDEFINITE);
+        while (o.hasNext()) {
+            writeObject(o.next());
+        }
+        return putByte(BREAK);
+    }
+
+    @Override
+    public JsonWriter writeArray(Object array) {
+        Class<?> arrayClass = array.getClass();
+        if (!arrayClass.isArray()) {
+            throw new JsonException("not an array: " + arrayClass);
+        }
+        if (array instanceof Object[]) {
+            Object[] objArray = (Object[]) array;
+            writeHead(ARRAY, objArray.length);
+            for (Object o : objArray) {
+                writeObject(o);
+            }
+        } else if (array instanceof int[]) {
+            int[] intArray = (int[]) array;
+            writeHead(ARRAY, intArray.length);
+            for (int i : intArray) {
+                writeInteger(i);
+            }
+        } else if (array instanceof long[]) {
+            long[] longArray = (long[]) array;
+            writeHead(ARRAY, longArray.length);
+            for (long l : longArray) {
+                writeInteger(l);
+            }
+        } else if (array instanceof boolean[]) {
+            boolean[] booleanArray = (boolean[]) array;
+            writeHead(ARRAY, booleanArray.length);
+            for (boolean b : booleanArray) {
+                putByte(b ? TRUE : FALSE);
+            }
+        } else if (array instanceof char[]) {
+            char[] charArray = (char[]) array;
+            writeHead(ARRAY, charArray.length);
+            for (char c : charArray) {
+                writeText(String.valueOf(c));
+            }
+        } else if (array instanceof double[]) {
+            double[] doubleArray = (double[]) array;
+            writeHead(ARRAY, doubleArray.length);
+            for (double d : doubleArray) {
+                writeDouble(d);
+            }
+        } else if (array instanceof float[]) {
+            float[] floatArray = (float[]) array;
+            writeHead(ARRAY, floatArray.length);
+            for (float f : floatArray) {
+                writeFloat(f);
+            }
+        } else if (array instanceof byte[]) {
+            byte[] byteArray = (byte[]) array;
+            writeHead(ARRAY, byteArray.length);
+            for (byte b : byteArray) {
+                writeInteger(b);
+            }
+        } else if (array instanceof short[]) {
+            short[] shortArray = (short[]) array;
+            writeHead(ARRAY, shortArray.length);
+            for (short s : shortArray) {
+                writeInteger(s);
+            }
+        } else {
+            throw new JsonException("Cannot serialize array: " + Arrays.deepToString((Object[]) array));
+        }
+        return this;
+    }
+
+    @Override
+    protected void beginObject() {
+        putByte(MAP | INDEFINITE);
+    }
+
+    @Override
+    protected void endObject() {
+        putByte(BREAK);
+    }
+
+    @Override
+    protected void writeFieldName(String name, boolean first) {
+        writeText(name);
+    }
+
+    @Override
+    protected void writeFieldName(QuotedString name, boolean first) {
+        writeText(name.getValue());
+    }
+
+    @Override
+    protected void beginArray() {
+        putByte(ARRAY | INDEFINITE);
+    }
+
+    @Override
+    protected void endArray() {
+        putByte(BREAK);
+    }
+
+    @Override
+    protected void writeSeparator() {
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(bytes, length);
+    }
+
+    /**
+     * CBOR output is binary: this only describes it, use {@link #toByteArray()} to get it
+     */
+    @Override
+    public String toString(boolean pretty) {
+        return "CborWriter[" + length + " bytes]";
+    }
+
+    private JsonWriter writeQuotedText(String quoted) {
+        return writeText(quoted.substring(1, quoted.length() - 1));
+    }
+
+    private JsonWriter writeText(String s) {
+        byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+        writeHead(TEXT, utf8.length);
+        putBytes(utf8, 0, utf8.length);
+        return this;
+    }
+
+    private JsonWriter writeInteger(long value) {
+        return value >= 0 ? writeHead(UNSIGNED, value) : writeHead(NEGATIVE, -1 - value);
+    }
+
+    private JsonWriter writeHead(int majorType, long value) {
+        ensure(9);
+        byte[] b = bytes;
+        if (value < 24) {
+            b[length++] = (byte) (majorType | value);
+        } else if (value < 0x100) {
+            b[length++] = (byte) (majorType | 24);
+            b[length++] = (byte) value;
+        } else if (value < 0x10000) {
+            b[length++] = (byte) (majorType | 25);
+            b[length++] = (byte) (value >>> 8);
+            b[length++] = (byte) value;
+        } else if (value < 0x100000000L) {
+            b[length++] = (byte) (majorType | 26);
+            b[length++] = (byte) (value >>> 24);
+            b[length++] = (byte) (value >>> 16);
+            b[length++] = (byte) (value >>> 8);
+            b[length++] = (byte) value;
+        } else {
+            b[length++] = (byte) (majorType | 27);
+            putLong(value);
+        }
+        return this;
+    }
+
+    private JsonWriter putByte(int b) {
+        ensure(1);
+        bytes[length++] = (byte) b;
+        return this;
+    }
+
+    private void putBytes(byte[] src, int offset, int len) {
+        ensure(len);
+        System.arraycopy(src, offset, bytes, length, len);
+        length += len;
+    }
+
+    private void putLong(long value) {
+        byte[] b = bytes;
+        for (int shift = 56; shift >= 0; shift -= 8) {
+            b[length++] = (byte) (value >>> shift);
+        }
+    }
+
+    private void ensure(int size) {
+        if (length + size > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + size));
+        }
+    }
+
+}
@@ -162,8 +162,7 @@ public class CharBuf extends Writer implements CharSequence {
     }
 
     public final CharBuf addBoolean(boolean b) {
-
-        add(Boolean.toString(b));
+        addChars(b ? trueChars : falseChars);
         return this;
     }
 
@@ -277,7 +276,7 @@ public class CharBuf extends Writer implements CharSequence {
         int _capacity = capacity;
 
         if (1 + _location > _capacity) {
-            _buffer = Chr.grow(_buffer);
+            _buffer = grow(_buffer);
             _capacity = _buffer.length;
 
         }
@@ -305,7 +304,7 @@ public class CharBuf extends Writer implements CharSequence {
 
     public CharBuf add(char[] chars) {
         if (chars.length + location > capacity) {
-            buffer = Chr.grow(buffer, buffer.length * 2 + chars.length);
+            buffer = grow(buffer, buffer.length * 2 + chars.length);
             capacity = buffer.length;
         }
 
@@ -316,7 +315,7 @@ public class CharBuf extends Writer implements CharSequence {
 
     public final CharBuf addChars(char[] chars) {
         if (chars.length + location > capacity) {
-            buffer = Chr.grow(buffer, buffer.length * 2 + chars.length);
+            buffer = grow(buffer, buffer.length * 2 + chars.length);
             capacity = buffer.length;
         }
 
@@ -333,7 +332,7 @@ public class CharBuf extends Writer implements CharSequence {
 
         int sizeNeeded = chars.length + 2 + _location;
         if (sizeNeeded > _capacity) {
-            _buffer = Chr.grow(_buffer, sizeNeeded * 2);
+            _buffer = grow(_buffer, sizeNeeded * 2);
             _capacity = _buffer.length;
         }
         _buffer[_location] = '"';
@@ -419,7 +418,7 @@ public class CharBuf extends Writer implements CharSequence {
         if (sizeNeeded > capacity) {
 
             int growBy = (_buffer.length * 2) < sizeNeeded ? sizeNeeded : (_buffer.length * 2);
-            _buffer = Chr.grow(buffer, growBy);
+            _buffer = grow(buffer, growBy);
             capacity = _buffer.length;
         }
 
@@ -437,7 +436,7 @@ public class CharBuf extends Writer implements CharSequence {
                       otherwise we would have to have 5x buffer
                       allocated for control chars */
                 if (_location + 5 > _buffer.length) {
-                    _buffer = Chr.grow(_buffer, 20);
+                    _buffer = grow(_buffer, 20);
                 }
 
                 switch (c) {
@@ -591,7 +590,7 @@ public class CharBuf extends Writer implements CharSequence {
         if (length + location < capacity) {
             Chr._idx(buffer, location, chars, length);
         } else {
-            buffer = Chr.grow(buffer, buffer.length * 2 + length);
+            buffer = grow(buffer, buffer.length * 2 + length);
             Chr._idx(buffer, location, chars);
             capacity = buffer.length;
         }
@@ -603,7 +602,7 @@ public class CharBuf extends Writer implements CharSequence {
         if (chars.length + location < capacity) {
             Chr._idx(buffer, location, chars);
         } else {
-            buffer = Chr.grow(buffer, buffer.length * 2 + chars.length);
+            buffer = grow(buffer, buffer.length * 2 + chars.length);
             Chr._idx(buffer, location, chars);
             capacity = buffer.length;
         }
@@ -625,7 +624,7 @@ public class CharBuf extends Writer implements CharSequence {
     public CharBuf add(byte[] bytes, int start, int end) {
         int charsLength = end - start;
         if (charsLength + location > capacity) {
-            buffer = Chr.grow(buffer, buffer.length * 2 + charsLength);
+            buffer = grow(buffer, buffer.length * 2 + charsLength);
         }
         Chr._idx(buffer, location, bytes, start, end);
         capacity = buffer.length;
@@ -637,7 +636,7 @@ public class CharBuf extends Writer implements CharSequence {
         if (1 + location < capacity) {
             buffer[location] = ch;
         } else {
-            buffer = Chr.grow(buffer);
+            buffer = grow(buffer);
             buffer[location] = ch;
             capacity = buffer.length;
         }
@@ -806,6 +805,124 @@ public class CharBuf extends Writer implements CharSequence {
         return this;
     }
 
+    private long utcSecond = Long.MIN_VALUE;
+    private final char[] utcChars = "\"0000-00-00T00:00:00+0000\"".toCharArray();
+
+    /**
+     * Adds an instant as a quoted {@code yyyy-MM-dd'T'HH:mm:ssZ} UTC string, with digits computed in place.
+     * The last rendered second is kept, so consecutive timestamps within the same second are a single array copy.
+     * Callers must ensure the year is between 1 and 9999.
+     */
+    public final CharBuf addQuotedUtcDateTime(long epochSecond) {
+        final char[] chars = utcChars;
+        if (epochSecond != utcSecond) {
+            long epochDay = Math.floorDiv(epochSecond, 86400);
+            int secondOfDay = (int) Math.floorMod(epochSecond, 86400);
+
+            /* Civil date from day count, see http://howardhinnant.github.io/date_algorithms.html */
+            long z = epochDay + 719468;
+            long era = Math.floorDiv(z, 146097);
+            int doe = (int) (z - era * 146097);
+            int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+            int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+            int mp = (5 * doy + 2) / 153;
+            int day = doy - (153 * mp + 2) / 5 + 1;
+            int month = mp < 10 ? mp + 3 : mp - 9;
+            int year = (int) (yoe + era * 400) + (month <= 2 ? 1 : 0);
+
+            put4(chars, 1, year);
+            put2(chars, 6, month);
+            put2(chars, 9, day);
+            put2(chars, 12, secondOfDay / 3600);
+            put2(chars, 15, secondOfDay / 60 % 60);
+            put2(chars, 18, secondOfDay % 60);
+            utcSecond = epochSecond;
+        }
+        return addChars(chars);
+    }
+
+    /**
+     * Adds a quoted ISO-8601 date time with milliseconds and offset id, i.e. {@code yyyy-MM-dd'T'HH:mm:ss.SSSXXXXX}
+     * where a zero offset is written {@code Z}. Callers must ensure the year is between 0 and 9999.
+     */
+    public final CharBuf addQuotedIsoDateTime(int year, int month, int day, int hour, int minute, int second, int millis, int offsetSeconds) {
+        int _location = location;
+        char[] _buffer = buffer;
+
+        int sizeNeeded = _location + 35;
+        if (sizeNeeded > capacity) {
+            _buffer = grow(_buffer, sizeNeeded * 2);
+            capacity = _buffer.length;
+        }
+
+        _buffer[_location] = '"';
+        put4(_buffer, _location + 1, year);
+        _buffer[_location + 5] = '-';
+        put2(_buffer, _location + 6, month);
+        _buffer[_location + 8] = '-';
+        put2(_buffer, _location + 9, day);
+        _buffer[_location + 11] = 'T';
+        put2(_buffer, _location + 12, hour);
+        _buffer[_location + 14] = ':';
+        put2(_buffer, _location + 15, minute);
+        _buffer[_location + 17] = ':';
+        put2(_buffer, _location + 18, second);
+        _buffer[_location + 20] = '.';
+        _buffer[_location + 21] = (char) ('0' + millis / 100);
+        put2(_buffer, _location + 22, millis % 100);
+        _location += 24;
+
+        if (offsetSeconds == 0) {
+            _buffer[_location++] = 'Z';
+        } else {
+            int abs = Math.abs(offsetSeconds);
+            _buffer[_location] = offsetSeconds < 0 ? '-' : '+';
+            put2(_buffer, _location + 1, abs / 3600);
+            _buffer[_location + 3] = ':';
+            put2(_buffer, _location + 4, abs / 60 % 60);
+            _location += 6;
+            if (abs % 60 != 0) {
+                _buffer[_location] = ':';
+                put2(_buffer, _location + 1, abs % 60);
+                _location += 3;
+            }
+        }
+        _buffer[_location++] = '"';
+
+        location = _location;
+        buffer = _buffer;
+        return this;
+    }
+
+    private static void put2(char[] chars, int index, int value) {
+        chars[index] = (char) ('0' + value / 10);
+        chars[index + 1] = (char) ('0' + value % 10);
+    }
+
+    private static void put4(char[] chars, int index, int value) {
+        put2(chars, index, value / 100);
+        put2(chars, index + 2, value % 100);
+    }
+
+    private int growCount;
+
+    private char[] grow(char[] array) {
+        growCount++;
+        return Chr.grow(array);
+    }
+
+    private char[] grow(char[] array, int size) {
+        growCount++;
+        return Chr.grow(array, size);
+    }
+
+    /**
+     * @return the number of times the underlying array had to be reallocated
+     */
+    public int getGrowCount() {
+        return growCount;
+    }
+
     public final CharBuf decodeJsonString(char[] chars) {
         return decodeJsonString(chars, 0, chars.length);
     }
@@ -817,7 +934,7 @@ public class CharBuf extends Writer implements CharSequence {
         int location = this.location;
 
         if (len > capacity) {
-            buffer = Chr.grow(buffer, buffer.length * 2 + len);
+            buffer = grow(buffer, buffer.length * 2 + len);
             capacity = buffer.length;
         }
 
@@ -15,14 +15,17 @@
  */
 package com.guestful.json.groovy;
 
-import com.guestful.json.JsonMapper;
+import com.guestful.json.BinaryJsonMapper;
+import com.guestful.json.JsonBatch;
+import com.guestful.json.JsonByteSource;
 import com.guestful.json.JsonMapperException;
-import groovy.json.JsonParserType;
-import groovy.json.JsonSlurper;
+import com.guestful.json.StripedPool;
+import groovy.json.internal.JsonParserCharArray;
 import org.codehaus.groovy.runtime.DefaultGroovyMethods;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Writer;
 import java.util.Collection;
@@ -31,10 +34,14 @@ import java.util.Map;
 /**
  * @author Mathieu Carbou (mathieu.carbou@gmail.com)
  */
-public class GroovyJsonMapper implements JsonMapper {
+public class GroovyJsonMapper implements BinaryJsonMapper {
 
     private final GroovyJsonSerializer serializer;
 
+    // same parser as a JsonSlurper of type CHAR_BUFFER, pooled for strings only: parsing a Reader reuses a read buffer
+    // which may still hold the end of a longer previous document
+    private final StripedPool<PooledParser> parsers = new StripedPool<>(PooledParser::new);
+
     public GroovyJsonMapper() {
         this.serializer = new GroovyJsonSerializer().setIgnoreMapNullValues(true);
     }
@@ -47,28 +54,81 @@ public class GroovyJsonMapper implements JsonMapper {
         return serializer;
     }
 
+    @Override
+    public <T> T fromJson(String json, Class<T> type) throws JsonMapperException {
+        try {
+            PooledParser parser = parsers.borrow();
+            Object o = parser.parse(json);
+            parser.clear();
+            parsers.release(parser);
+            return asType(o, type);
+        } catch (RuntimeException e) {
+            throw new JsonMapperException("Error reading JSON as " + type.getSimpleName(), e);
+        }
+    }
+
     @Override
     public <T> T fromJson(Reader reader, Class<T> type) throws JsonMapperException, IOException {
         try {
-            JsonSlurper slurper = new JsonSlurper();
-            slurper.setType(JsonParserType.CHAR_BUFFER);
-            slurper.setCheckDates(false);
-            slurper.setChop(false);
-            slurper.setLazyChop(false);
-            Object o = slurper.parse(reader);
-            if (type.isAssignableFrom(o.getClass())) return type.cast(o);
-            if (o instanceof Collection) return DefaultGroovyMethods.asType((Collection) o, type);
-            if (o instanceof Map) return DefaultGroovyMethods.asType((Map) o, type);
-            return DefaultGroovyMethods.asType(o, type);
+            Object o = new JsonParserCharArray().parse(reader);
+            return asType(o, type);
         } catch (RuntimeException e) {
             throw new JsonMapperException("Error reading JSON as " + type.getSimpleName(), e);
         }
     }
 
+    /**
+     * Reads CBOR (RFC 7049) as produced by {@link #toBinary(Object, OutputStream)}
+     */
+    @Override
+    public <T> T fromBinary(InputStream is, Class<T> type) throws JsonMapperException, IOException {
+        try {
+            return asType(new CborReader(is).read(), type);
+        } catch (RuntimeException e) {
+            throw new JsonMapperException("Error reading CBOR as " + type.getSimpleName(), e);
+        }
+    }
+
+    @Override
+    public <T> T convertValue(Object value, Class<T> type) throws JsonMapperException {
+        try {
+            return value == null ? null : asType(value, type);
+        } catch (RuntimeException e) {
+            throw new JsonMapperException("Error converting value to " + type.getSimpleName(), e);
+        }
+    }
+
+    /**
+     * Writes CBOR (RFC 7049) using the same serializers as for JSON
+     */
+    @Override
+    public void toBinary(Object o, OutputStream os) throws JsonMapperException, IOException {
+        try {
+            os.write(serializer.toCbor(o));
+            os.flush();
+        } catch (RuntimeException e) {
+            throw new JsonMapperException("Error writing object to CBOR: " + o, e);
+        }
+    }
+
+    @Override
+    public JsonBatch toJsonBatch(Collection<?> objects) throws JsonMapperException {
+        try {
+            return serializer.toJsonBatch(objects);
+        } catch (RuntimeException e) {
+            throw new JsonMapperException("Error writing batch to JSON", e);
+        }
+    }
+
+    @Override
+    public JsonByteSource toJsonSource(Object o) throws JsonMapperException {
+        return serializer.toJsonSource(o);
+    }
+
     @Override
     public void toJson(Object o, Writer writer) throws IOException {
-        writer = new BufferedWriter(writer);
         try {
+            // the document is written at once: a BufferedWriter would only allocate and copy
             writer.write(serializer.toJson(o));
             writer.flush();
         } catch (RuntimeException e) {
@@ -86,4 +146,20 @@ public class GroovyJsonMapper implements JsonMapper {
         return this;
     }
 
-}
\ No newline at end of file
+    private static <T> T asType(Object o, Class<T> type) {
+        if (type.isAssignableFrom(o.getClass())) return type.cast(o);
+        if (o instanceof Collection) return DefaultGroovyMethods.asType((Collection) o, type);
+        if (o instanceof Map) return DefaultGroovyMethods.asType((Map) o, type);
+        return DefaultGroovyMethods.asType(o, type);
+    }
+
+    private static final class PooledParser extends JsonParserCharArray {
+        /**
+         * Drops the last parsed chars, so that a pooled parser does not retain a document
+         */
+        void clear() {
+            charArray = null;
+        }
+    }
+
+}
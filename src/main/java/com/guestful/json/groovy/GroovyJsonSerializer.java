@@ -15,6 +15,10 @@
  */
 package com.guestful.json.groovy;
 
+import com.guestful.json.JsonBatch;
+import com.guestful.json.JsonByteSource;
+import com.guestful.json.JsonProjection;
+import com.guestful.json.StripedPool;
 import groovy.json.JsonDelegate;
 import groovy.json.internal.Chr;
 import groovy.lang.Closure;
@@ -30,14 +34,13 @@ import java.math.BigInteger;
 import java.net.URI;
 import java.net.URL;
 import java.time.*;
-import java.time.format.DateTimeFormatter;
-import java.time.format.DateTimeFormatterBuilder;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
-import static java.time.temporal.ChronoField.*;
-
 /**
  * @author Mathieu Carbou (mathieu.carbou@gmail.com)
  */
@@ -46,27 +49,38 @@ public class GroovyJsonSerializer implements SerializerRepository {
     private static final JsonTypeSerializer TO_STRING = (o, writer) -> writer.writeString(o.toString());
     private static final JsonTypeSerializer TO_ESCAPED_STRING = (o, writer) -> writer.writeEscapedString(o.toString());
 
-    private static final DateTimeFormatter UTC_FORMATTER = DateTimeFormatter
-        .ofPattern("yyyy-MM-dd'T'HH:mm:ssZ", Locale.US)
-        .withZone(ZoneOffset.UTC);
-
-    private static final DateTimeFormatter ISO_OFFSET_DATE_TIME = new DateTimeFormatterBuilder()
-        .parseCaseInsensitive()
-        .append(DateTimeFormatter.ISO_LOCAL_DATE)
-        .appendLiteral('T')
-        .appendValue(HOUR_OF_DAY, 2)
-        .appendLiteral(':')
-        .appendValue(MINUTE_OF_HOUR, 2)
-        .appendLiteral(':')
-        .appendValue(SECOND_OF_MINUTE, 2)
-        .appendFraction(MILLI_OF_SECOND, 3, 3, true)
-        .appendOffsetId()
-        .toFormatter();
+    // containers which JsonByteSource walks itself instead of writing them at once
+    static final JsonTypeSerializer<Map> MAP = (o, writer) -> writer.writeMap(o);
+    static final JsonTypeSerializer<Iterator> ITERATOR = (o, writer) -> writer.writeIterator(o);
+    static final JsonTypeSerializer<Iterable> ITERABLE = (o, writer) -> writer.writeIterator(o.iterator());
+    static final JsonTypeSerializer<Stream> STREAM = (o, writer) -> writer.writeIterator(o.iterator());
+
+    private static final int MAX_POOLED_BUFFER_SIZE = 64 * 1024;
+
+    private static final QuotedString[] DAY_OF_WEEK_NAMES = abbreviations(DayOfWeek.values());
+    private static final QuotedString[] MONTH_NAMES = abbreviations(Month.values());
+    private static final ConcurrentMap<ZoneOffset, QuotedString> ZONE_OFFSET_IDS = new ConcurrentHashMap<>();
+    private static final ClassValue<QuotedString[]> ENUM_NAMES = new ClassValue<QuotedString[]>() {
+        @Override
+        protected QuotedString[] computeValue(Class<?> type) {
+            Enum<?>[] constants = (Enum<?>[]) type.getEnumConstants();
+            QuotedString[] names = new QuotedString[constants.length];
+            for (Enum<?> constant : constants) {
+                names[constant.ordinal()] = QuotedString.of(constant.name());
+            }
+            return names;
+        }
+    };
 
     private final Map<Class<?>, JsonTypeSerializer<?>> finalSerializers = new HashMap<>();
     private final Map<Class<?>, JsonTypeSerializer<?>> instanceSerializers = new LinkedHashMap<>();
 
+    // shared by all threads without ThreadLocal, so that the number of pooled buffers does not follow the number of (virtual) threads
+    private final StripedPool<CharBuf> buffers = new StripedPool<>(() -> CharBuf.create(1024));
+
     private boolean ignoreMapNullValues;
+    private boolean streamingClosures;
+    private JsonWriterListener listener;
 
     public GroovyJsonSerializer() {
         addToEscapedStringSerializer(
@@ -119,20 +133,21 @@ public class GroovyJsonSerializer implements SerializerRepository {
             if (o.isPresent()) writer.writeObject(o.get());
             else writer.writeNull();
         });
-        addCustomSerializer(ZoneOffset.class, (o, writer) -> writer.writeString(o.getId()));
-        addCustomSerializer(DayOfWeek.class, (o, writer) -> writer.writeString(o.name().substring(0, 3)));
-        addCustomSerializer(Month.class, (o, writer) -> writer.writeString(o.name().substring(0, 3)));
-        addCustomSerializer(OffsetDateTime.class, (o, writer) -> writer.writeString(o.format(ISO_OFFSET_DATE_TIME)));
-        addCustomSerializer(ZonedDateTime.class, (o, writer) -> writer.writeString(o.toOffsetDateTime().format(ISO_OFFSET_DATE_TIME)));
-        addCustomSerializer(Instant.class, (o, writer) -> writer.writeString(UTC_FORMATTER.format(o)));
+        addCustomSerializer(ZoneOffset.class, (o, writer) -> writer.writeString(ZONE_OFFSET_IDS.computeIfAbsent(o, offset -> QuotedString.of(offset.getId()))));
+        addCustomSerializer(DayOfWeek.class, (o, writer) -> writer.writeString(DAY_OF_WEEK_NAMES[o.ordinal()]));
+        addCustomSerializer(Month.class, (o, writer) -> writer.writeString(MONTH_NAMES[o.ordinal()]));
+        addCustomSerializer(OffsetDateTime.class, (o, writer) -> writer.writeOffsetDateTime(o));
+        addCustomSerializer(ZonedDateTime.class, (o, writer) -> writer.writeZonedDateTime(o));
+        addCustomSerializer(Instant.class, (o, writer) -> writer.writeUtcDateTime(o.getEpochSecond()));
+        addCustomSerializer(RawJson.class, (o, writer) -> writer.writeRawJson(o));
         addCustomSerializer(Duration.class, (o, writer) -> writer.writeLong(o.toMillis()));
         addCustomSerializer(Period.class, (o, writer) -> writer.writeLong(toDuration(o).toMillis()));
 
         // instance
-        addCustomSerializer(Map.class, (o, writer) -> writer.writeMap(o));
-        addCustomSerializer(Iterator.class, (o, writer) -> writer.writeIterator(o));
-        addCustomSerializer(Iterable.class, (o, writer) -> writer.writeIterator(o.iterator()));
-        addCustomSerializer(Stream.class, (o, writer) -> writer.writeIterator(o.iterator()));
+        addCustomSerializer(Map.class, MAP);
+        addCustomSerializer(Iterator.class, ITERATOR);
+        addCustomSerializer(Iterable.class, ITERABLE);
+        addCustomSerializer(Stream.class, STREAM);
         addCustomSerializer(Enumeration.class, (o, writer) -> writer.writeIterator(new Iterator<Object>() {
             @Override
             public boolean hasNext() {
@@ -145,13 +160,19 @@ public class GroovyJsonSerializer implements SerializerRepository {
             }
         }));
         addCustomSerializer(JsonValue.class, (o, writer) -> writer.writeJsonValue(o));
-        addCustomSerializer(Enum.class, (o, writer) -> writer.writeString(o.name()));
+        addCustomSerializer(Enum.class, (o, writer) -> writer.writeString(ENUM_NAMES.get(o.getDeclaringClass())[o.ordinal()]));
         addCustomSerializer(Number.class, (o, writer) -> writer.writeRaw(o.toString()));
         addCustomSerializer(TimeZone.class, (o, writer) -> writer.writeString(o.getID()));
         addCustomSerializer(ZoneId.class, (o, writer) -> writer.writeString(o.getId()));
-        addCustomSerializer(Date.class, (o, writer) -> writer.writeString(UTC_FORMATTER.format(o.toInstant())));
-        addCustomSerializer(Calendar.class, (o, writer) -> writer.writeString(UTC_FORMATTER.format(o.toInstant())));
-        addCustomSerializer(Closure.class, (o, writer) -> writer.writeMap(JsonDelegate.cloneDelegateAndGetContent(o)));
+        addCustomSerializer(Date.class, (o, writer) -> writer.writeUtcDateTime(Math.floorDiv(o.getTime(), 1000)));
+        addCustomSerializer(Calendar.class, (o, writer) -> writer.writeUtcDateTime(Math.floorDiv(o.getTimeInMillis(), 1000)));
+        addCustomSerializer(Closure.class, (o, writer) -> {
+            if (streamingClosures) {
+                writer.writeClosure(o);
+            } else {
+                writer.writeMap(JsonDelegate.cloneDelegateAndGetContent(o));
+            }
+        });
         addCustomSerializer(Expando.class, (o, writer) -> writer.writeMap(o.getProperties()));
     }
 
@@ -164,6 +185,32 @@ public class GroovyJsonSerializer implements SerializerRepository {
         return this;
     }
 
+    /**
+     * Registers the serializer compiled from the descriptor. Serializers of the field value types must be registered
+     * before, since they are looked up at compilation.
+     */
+    public <T> GroovyJsonSerializer addTypeDescriptor(JsonTypeDescriptor<T> descriptor) {
+        return addCustomSerializer(descriptor.getType(), descriptor.compile(this));
+    }
+
+    /**
+     * Caches the output of the serializer currently used for the given type, by object identity
+     */
+    public <T> GroovyJsonSerializer addCachedSerializer(Class<T> type, SerializationCache cache) {
+        return addCachedSerializer(type, cache, null);
+    }
+
+    /**
+     * Caches the output of the serializer currently used for the given type, by a version key computed from each object
+     */
+    public <T> GroovyJsonSerializer addCachedSerializer(Class<T> type, SerializationCache cache, Function<? super T, ?> versionKey) {
+        JsonTypeSerializer<T> serializer = findSerializer(type);
+        if (serializer == null) {
+            serializer = type.isArray() ? (o, writer) -> writer.writeArray(o) : (o, writer) -> writer.writeBean(o);
+        }
+        return addCustomSerializer(type, cache.cached(serializer, versionKey));
+    }
+
     @SuppressWarnings("unchecked")
     public GroovyJsonSerializer addToStringSerializer(Class<?>... types) {
         for (Class<?> type : types) {
@@ -202,12 +249,143 @@ public class GroovyJsonSerializer implements SerializerRepository {
         return this;
     }
 
+    public boolean isStreamingClosures() {
+        return streamingClosures;
+    }
+
+    /**
+     * @param streamingClosures whether closures are written while they run, with {@link JsonWriter#writeClosure(Closure)},
+     *                          instead of being collected into a map first as JsonBuilder does. Streaming avoids the map
+     *                          but fails on a closure calling a field twice, where the map keeps the last value.
+     */
+    public GroovyJsonSerializer setStreamingClosures(boolean streamingClosures) {
+        this.streamingClosures = streamingClosures;
+        return this;
+    }
+
+    public JsonWriterListener getListener() {
+        return listener;
+    }
+
+    public GroovyJsonSerializer setListener(JsonWriterListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
     public String toJson(Object o) {
-        return new JsonWriter(this, ignoreMapNullValues).writeObject(o).toString();
+        return write(o, null, false);
+    }
+
+    /**
+     * @return the JSON of the given object, restricted to the fields selected by the projection
+     */
+    public String toJson(Object o, JsonProjection projection) {
+        return write(o, projection, false);
+    }
+
+    /**
+     * Writes the JSON of the given object to an output such as {@link OffHeapJsonOutput} or {@link SegmentedJsonOutput},
+     * for documents too large for a single growing array
+     */
+    public <T extends JsonCharOutput> T toJson(Object o, T output) {
+        long start = output.getCharCount();
+        JsonWriter writer = new JsonWriter(this, ignoreMapNullValues, output).setListener(listener).writeObject(o).flush();
+        if (listener != null) {
+            long length = output.getCharCount() - start;
+            listener.onDocumentWritten(o == null ? null : o.getClass(), (int) Math.min(Integer.MAX_VALUE, length), writer.getBufferGrowthCount());
+        }
+        return output;
     }
 
     public String toPrettyJson(Object o) {
-        return new JsonWriter(this, ignoreMapNullValues).writeObject(o).toString(true);
+        return write(o, null, true);
+    }
+
+    /**
+     * Serializes many objects into a single buffer, looking serializers up once per run of objects of the same type
+     */
+    public JsonBatch toJsonBatch(Collection<?> objects) {
+        CharBuf buffer = buffers.borrow();
+        JsonWriter writer = new JsonWriter(this, ignoreMapNullValues, buffer).setListener(listener);
+        int[] offsets = new int[objects.size() + 1];
+        int i = 0;
+        Class<?> type = null;
+        JsonTypeSerializer<Object> serializer = null;
+        for (Object o : objects) {
+            if (o == null) {
+                writer.writeNull();
+            } else {
+                if (o.getClass() != type) {
+                    type = o.getClass();
+                    serializer = findSerializer(type);
+                }
+                if (serializer != null) {
+                    serializer.write(o, writer);
+                } else {
+                    // same as writeObject, without looking the serializer up again
+                    if (listener != null) {
+                        listener.onSerializerMiss(type);
+                    }
+                    if (type.isArray()) {
+                        writer.writeArray(o);
+                    } else {
+                        writer.writeBean(o);
+                    }
+                }
+            }
+            offsets[++i] = writer.length();
+            if (listener != null) {
+                listener.onDocumentWritten(o == null ? null : o.getClass(), offsets[i] - offsets[i - 1], 0);
+            }
+        }
+        JsonBatch batch = new JsonBatch(Arrays.copyOf(buffer.toCharArray(), writer.length()), offsets);
+        if (buffer.toCharArray().length <= MAX_POOLED_BUFFER_SIZE) {
+            buffer.recycle();
+            buffers.release(buffer);
+        }
+        return batch;
+    }
+
+    /**
+     * @return a source serializing the given object progressively, as buffers are handed to it
+     */
+    public JsonByteSource toJsonSource(Object o) {
+        return new StreamingJsonSource(this, o);
+    }
+
+    /**
+     * @return the CBOR (RFC 7049) encoding of the given object, using the same serializers as for JSON
+     */
+    public byte[] toCbor(Object o) {
+        CborWriter writer = new CborWriter(this, ignoreMapNullValues);
+        writer.setListener(listener).writeObject(o);
+        if (listener != null) {
+            listener.onDocumentWritten(o == null ? null : o.getClass(), writer.length(), 0);
+        }
+        return writer.toByteArray();
+    }
+
+    private String write(Object o, JsonProjection projection, boolean pretty) {
+        CharBuf buffer = buffers.borrow();
+        JsonWriter writer = new JsonWriter(this, ignoreMapNullValues, buffer).setListener(listener).setProjection(projection).writeObject(o);
+        if (listener != null) {
+            listener.onDocumentWritten(o == null ? null : o.getClass(), writer.length(), writer.getBufferGrowthCount());
+        }
+        String json = writer.toString(pretty);
+        // a buffer is not pooled back on failure, nor when it grew too large to be worth keeping
+        if (buffer.toCharArray().length <= MAX_POOLED_BUFFER_SIZE) {
+            buffer.recycle();
+            buffers.release(buffer);
+        }
+        return json;
+    }
+
+    private static QuotedString[] abbreviations(Enum<?>[] constants) {
+        QuotedString[] names = new QuotedString[constants.length];
+        for (Enum<?> constant : constants) {
+            names[constant.ordinal()] = QuotedString.of(constant.name().substring(0, 3));
+        }
+        return names;
     }
 
     private static Duration toDuration(Period p) {
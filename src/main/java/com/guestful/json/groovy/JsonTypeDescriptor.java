@@ -0,0 +1,147 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.json.groovy;
+
+import com.guestful.json.JsonProjection;
+
+import javax.json.JsonException;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * The fixed JSON layout of a type: its fields, in order, with their getter and value type.
+ * <p>
+ * {@link #compile(SerializerRepository)} turns it into a serializer which writes pre-rendered field names, and which
+ * resolves once the serializers of final value types, such as String, Integer or enums. Values of another type, such
+ * as a GString returned for a String field, are written as any other object. Fields declared with
+ * {@link #requiredField(String, Class, Function)} are not written as null: a null value fails with a
+ * {@link JsonException} naming the field.
+ * <pre>
+ * serializer.addTypeDescriptor(JsonTypeDescriptor.of(City)
+ *     .requiredField('id', Long, { City c -> c.id } as Function)
+ *     .field('name', String, { City c -> c.name } as Function))
+ * </pre>
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public final class JsonTypeDescriptor<T> {
+
+    private final Class<T> type;
+    private final List<Field<T>> fields = new ArrayList<>();
+
+    private JsonTypeDescriptor(Class<T> type) {
+        this.type = type;
+    }
+
+    public static <T> JsonTypeDescriptor<T> of(Class<T> type) {
+        return new JsonTypeDescriptor<>(type);
+    }
+
+    public Class<T> getType() {
+        return type;
+    }
+
+    /**
+     * Adds a field which value may be null
+     */
+    public <V> JsonTypeDescriptor<T> field(String name, Class<V> valueType, Function<? super T, ? extends V> getter) {
+        fields.add(new Field<>(QuotedString.of(name), valueType, getter, false));
+        return this;
+    }
+
+    /**
+     * Adds a field which getter never returns null
+     */
+    public <V> JsonTypeDescriptor<T> requiredField(String name, Class<V> valueType, Function<? super T, ? extends V> getter) {
+        fields.add(new Field<>(QuotedString.of(name), valueType, getter, true));
+        return this;
+    }
+
+    /**
+     * @param repository the serializers of the field values, looked up now for final value types
+     */
+    @SuppressWarnings("unchecked")
+    public JsonTypeSerializer<T> compile(SerializerRepository repository) {
+        int size = fields.size();
+        QuotedString[] names = new QuotedString[size];
+        Class<?>[] valueTypes = new Class<?>[size];
+        Function<? super T, ?>[] getters = new Function[size];
+        JsonTypeSerializer<Object>[] serializers = new JsonTypeSerializer[size];
+        boolean[] required = new boolean[size];
+        for (int i = 0; i < size; i++) {
+            Field<T> field = fields.get(i);
+            names[i] = field.name;
+            valueTypes[i] = field.valueType;
+            getters[i] = field.getter;
+            required[i] = field.required;
+            if (Modifier.isFinal(field.valueType.getModifiers()) && !field.valueType.isArray()) {
+                serializers[i] = repository.findSerializer(field.valueType);
+            }
+        }
+        return (o, writer) -> {
+            JsonProjection parent = writer.getProjection();
+            boolean ignoreNulls = writer.isIgnoreMapNullValues();
+            boolean first = true;
+            writer.beginObject();
+            try {
+                for (int i = 0; i < size; i++) {
+                    // excluded fields are not read
+                    if (parent != null && !writer.enterField(parent, names[i].getValue())) {
+                        continue;
+                    }
+                    Object value = getters[i].apply(o);
+                    if (value == null) {
+                        if (required[i]) {
+                            throw new JsonException("Required field '" + names[i].getValue() + "' of " + type.getName() + " is null");
+                        }
+                        if (ignoreNulls) {
+                            continue;
+                        }
+                    }
+                    writer.writeFieldName(names[i], first);
+                    first = false;
+                    if (value == null) {
+                        writer.writeNull();
+                    } else if (serializers[i] != null && value.getClass() == valueTypes[i]) {
+                        serializers[i].write(value, writer);
+                    } else {
+                        writer.writeObject(value);
+                    }
+                }
+            } finally {
+                writer.setProjection(parent);
+            }
+            writer.endObject();
+        };
+    }
+
+    private static final class Field<T> {
+        final QuotedString name;
+        final Class<?> valueType;
+        final Function<? super T, ?> getter;
+        final boolean required;
+
+        Field(QuotedString name, Class<?> valueType, Function<? super T, ?> getter, boolean required) {
+            this.name = name;
+            this.valueType = valueType;
+            this.getter = getter;
+            this.required = required;
+        }
+    }
+
+}
@@ -15,38 +15,138 @@
  */
 package com.guestful.json.groovy;
 
+import com.guestful.json.JsonProjection;
 import groovy.json.JsonLexer;
 import groovy.json.JsonToken;
 import groovy.json.internal.Chr;
-import org.codehaus.groovy.runtime.DefaultGroovyMethods;
+import groovy.lang.Closure;
+import groovy.lang.GroovyObjectSupport;
 
 import javax.json.JsonException;
 import javax.json.JsonValue;
 import java.io.StringReader;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+
+import static java.time.temporal.ChronoField.*;
 
 /**
  * @author Mathieu Carbou (mathieu.carbou@gmail.com)
  */
 public class JsonWriter {
 
-    private static final char[] EMPTY_MAP_CHARS = {'{', '}'};
     private static final char[] EMPTY_LIST_CHARS = {'[', ']'};
+    private static final Object[] EMPTY_ARGS = new Object[0];
     private static final char[] EMPTY_STRING_CHARS = Chr.array('"', '"');
 
-    private final CharBuf buffer = CharBuf.create(255);
+    // 0001-01-01T00:00:00Z and 10000-01-01T00:00:00Z
+    private static final long MIN_UTC_SECOND = -62135596800L;
+    private static final long MAX_UTC_SECOND = 253402300800L;
+
+    // size above which the buffer of a writer having an output is moved to it
+    private static final int SPILL_THRESHOLD = 64 * 1024;
+
+    private static final DateTimeFormatter UTC_FORMATTER = DateTimeFormatter
+        .ofPattern("yyyy-MM-dd'T'HH:mm:ssZ", Locale.US)
+        .withZone(ZoneOffset.UTC);
+
+    private static final DateTimeFormatter ISO_OFFSET_DATE_TIME = new DateTimeFormatterBuilder()
+        .parseCaseInsensitive()
+        .append(DateTimeFormatter.ISO_LOCAL_DATE)
+        .appendLiteral('T')
+        .appendValue(HOUR_OF_DAY, 2)
+        .appendLiteral(':')
+        .appendValue(MINUTE_OF_HOUR, 2)
+        .appendLiteral(':')
+        .appendValue(SECOND_OF_MINUTE, 2)
+        .appendFraction(MILLI_OF_SECOND, 3, 3, true)
+        .appendOffsetId()
+        .toFormatter();
+
+    private final CharBuf buffer;
+    private final int initialGrowCount;
+    private final JsonCharOutput output;
 
     private final SerializerRepository serializerRepository;
     private final boolean ignoreMapNullValues;
 
+    private JsonWriterListener listener;
+    private JsonProjection projection;
+
     public JsonWriter(SerializerRepository serializerRepository, boolean ignoreMapNullValues) {
+        this(serializerRepository, ignoreMapNullValues, CharBuf.create(255));
+    }
+
+    /**
+     * Writes to the given buffer, for instance a pooled one, after what it already holds
+     */
+    public JsonWriter(SerializerRepository serializerRepository, boolean ignoreMapNullValues, CharBuf buffer) {
+        this.serializerRepository = serializerRepository;
+        this.ignoreMapNullValues = ignoreMapNullValues;
+        this.buffer = buffer;
+        this.initialGrowCount = buffer.getGrowCount();
+        this.output = null;
+    }
+
+    /**
+     * Writes to an output such as {@link OffHeapJsonOutput} or {@link SegmentedJsonOutput}: the buffer is moved to it
+     * between values once it exceeds a few kilobytes, so its size stays bounded by the largest single value.
+     * {@link #flush()} must be called after the last value.
+     */
+    public JsonWriter(SerializerRepository serializerRepository, boolean ignoreMapNullValues, JsonCharOutput output) {
         this.serializerRepository = serializerRepository;
         this.ignoreMapNullValues = ignoreMapNullValues;
+        this.buffer = CharBuf.create(SPILL_THRESHOLD);
+        this.initialGrowCount = buffer.getGrowCount();
+        this.output = output;
+    }
+
+    public SerializerRepository getSerializerRepository() {
+        return serializerRepository;
+    }
+
+    public boolean isIgnoreMapNullValues() {
+        return ignoreMapNullValues;
+    }
+
+    public JsonWriterListener getListener() {
+        return listener;
+    }
+
+    public JsonWriter setListener(JsonWriterListener listener) {
+        this.listener = listener;
+        return this;
+    }
+
+    /**
+     * @return the projection applying to the value being written, or null if all fields are written
+     */
+    public JsonProjection getProjection() {
+        return projection;
+    }
+
+    /**
+     * Restricts the fields written by {@link #writeMap(Map)} and {@link #writeBean(Object)}. Excluded fields are
+     * skipped before their value is read. Custom serializers writing their own objects are not affected.
+     */
+    public JsonWriter setProjection(JsonProjection projection) {
+        this.projection = projection == null || projection.isAll() ? null : projection;
+        return this;
     }
 
     public JsonWriter writeEscapedString(char[] chars) {
@@ -81,6 +181,11 @@ public class JsonWriter {
         return this;
     }
 
+    public JsonWriter writeString(QuotedString s) {
+        buffer.addChars(s.chars());
+        return this;
+    }
+
     public JsonWriter writeBoolean(Boolean o) {
         buffer.addBoolean(o);
         return this;
@@ -131,6 +236,44 @@ public class JsonWriter {
         return this;
     }
 
+    /**
+     * Writes an instant as {@code yyyy-MM-dd'T'HH:mm:ssZ} in UTC, without going through a {@link DateTimeFormatter}
+     * for years 1 to 9999.
+     */
+    public JsonWriter writeUtcDateTime(long epochSecond) {
+        if (epochSecond >= MIN_UTC_SECOND && epochSecond < MAX_UTC_SECOND) {
+            buffer.addQuotedUtcDateTime(epochSecond);
+        } else {
+            writeString(UTC_FORMATTER.format(Instant.ofEpochSecond(epochSecond)));
+        }
+        return this;
+    }
+
+    public JsonWriter writeOffsetDateTime(OffsetDateTime o) {
+        return writeIsoDateTime(o.toLocalDateTime(), o.getOffset());
+    }
+
+    public JsonWriter writeZonedDateTime(ZonedDateTime o) {
+        return writeIsoDateTime(o.toLocalDateTime(), o.getOffset());
+    }
+
+    private JsonWriter writeIsoDateTime(LocalDateTime dt, ZoneOffset offset) {
+        int year = dt.getYear();
+        if (year >= 0 && year <= 9999) {
+            buffer.addQuotedIsoDateTime(year, dt.getMonthValue(), dt.getDayOfMonth(),
+                dt.getHour(), dt.getMinute(), dt.getSecond(), dt.getNano() / 1000000,
+                offset.getTotalSeconds());
+        } else {
+            writeString(ISO_OFFSET_DATE_TIME.format(OffsetDateTime.of(dt, offset)));
+        }
+        return this;
+    }
+
+    public JsonWriter writeRawJson(RawJson o) {
+        o.writeTo(buffer);
+        return this;
+    }
+
     public JsonWriter writeJsonValue(JsonValue o) {
         buffer.add(o.toString());
         return this;
@@ -240,9 +383,10 @@ public class JsonWriter {
     }
 
     public JsonWriter writeMap(Map<?, ?> o) {
-        if (!o.isEmpty()) {
-            buffer.addChar('{');
-            boolean firstItem = true;
+        JsonProjection parent = projection;
+        boolean firstItem = true;
+        beginObject();
+        try {
             for (Map.Entry<?, ?> entry : o.entrySet()) {
                 if (ignoreMapNullValues && entry.getValue() == null) {
                     continue;
@@ -250,18 +394,18 @@ public class JsonWriter {
                 if (entry.getKey() == null) {
                     throw new IllegalArgumentException("Maps with null keys can\'t be converted to JSON");
                 }
-                if (!firstItem) {
-                    buffer.addChar(',');
-                } else {
-                    firstItem = false;
+                String name = entry.getKey().toString();
+                if (parent != null && !enterField(parent, name)) {
+                    continue;
                 }
-                buffer.addJsonFieldName(entry.getKey().toString());
+                writeFieldName(name, firstItem);
+                firstItem = false;
                 writeObject(entry.getValue());
             }
-            buffer.addChar('}');
-        } else {
-            buffer.addChars(EMPTY_MAP_CHARS);
+        } finally {
+            projection = parent;
         }
+        endObject();
         return this;
     }
 
@@ -270,31 +414,248 @@ public class JsonWriter {
         return toString(false);
     }
 
+    /**
+     * @return the JSON written so far, or a description of the writer if the JSON is moved to an output which can't be
+     * read back, such as an {@link OffHeapJsonOutput}
+     */
     public String toString(boolean pretty) {
-        return pretty ? prettyPrint(buffer.toString()) : buffer.toString();
+        String json;
+        if (output == null) {
+            json = buffer.toString();
+        } else if (output instanceof CharSequence) {
+            // moves the buffered tail to the output first, so that the JSON is joined once
+            flush();
+            json = output.toString();
+        } else {
+            return "JsonWriter[" + output.getClass().getSimpleName() + ", " + (output.getCharCount() + buffer.len()) + " chars]";
+        }
+        return pretty ? prettyPrint(json) : json;
     }
 
     public JsonWriter writeObject(Object object) {
         if (object == null) {
-            buffer.addNull();
+            writeNull();
         } else {
             Class<?> objectClass = object.getClass();
             JsonTypeSerializer<Object> serializer = serializerRepository.findSerializer(objectClass);
             if (serializer != null) {
                 serializer.write(object, this);
-            } else if (objectClass.isArray()) {
-                writeArray(object);
             } else {
-                Map<?, ?> properties = DefaultGroovyMethods.getProperties(object);
-                properties.remove("class");
-                properties.remove("declaringClass");
-                properties.remove("metaClass");
-                writeMap(properties);
+                if (listener != null) {
+                    listener.onSerializerMiss(objectClass);
+                }
+                if (objectClass.isArray()) {
+                    writeArray(object);
+                } else {
+                    writeBean(object);
+                }
+            }
+        }
+        if (output != null && buffer.len() >= SPILL_THRESHOLD) {
+            flush();
+        }
+        return this;
+    }
+
+    /**
+     * Moves the buffered JSON to the output, if this writer has one
+     */
+    public JsonWriter flush() {
+        if (output != null) {
+            output.write(buffer.toCharArray(), 0, buffer.len());
+            buffer.recycle();
+        }
+        return this;
+    }
+
+    /**
+     * Writes the properties of an object, which is what happens to objects having no registered serializer
+     */
+    public JsonWriter writeBean(Object object) {
+        if (listener != null) {
+            listener.onBeanFallback(object.getClass());
+        }
+        JsonProjection parent = projection;
+        boolean firstItem = true;
+        beginObject();
+        try {
+            PropertyPlan plan = PropertyPlan.of(object);
+            for (int i = 0, size = plan.size(); i < size; i++) {
+                String name = plan.getName(i);
+                if (parent != null && !enterField(parent, name)) {
+                    continue;
+                }
+                Object value;
+                try {
+                    value = plan.getValue(i, object);
+                } catch (Exception e) {
+                    // unreadable properties are skipped, as by DefaultGroovyMethods.getProperties()
+                    continue;
+                }
+                if (ignoreMapNullValues && value == null) {
+                    continue;
+                }
+                writeFieldName(name, firstItem);
+                firstItem = false;
+                writeObject(value);
             }
+        } finally {
+            projection = parent;
+        }
+        endObject();
+        return this;
+    }
+
+    /**
+     * Writes the object described by a closure in the JsonBuilder style, such as {@code { name 'Paris'; zip 75001 }},
+     * while the closure runs: fields are written as they are called, without building a map first.
+     * <p>
+     * Since fields are already written, a closure calling a field twice fails with a {@link JsonException}, where
+     * JsonBuilder would keep the last value: a {@link GroovyJsonSerializer} only writes closures this way once
+     * {@link GroovyJsonSerializer#setStreamingClosures(boolean)} is enabled.
+     */
+    public JsonWriter writeClosure(Closure<?> closure) {
+        return writeClosure(closure, EMPTY_ARGS);
+    }
+
+    private JsonWriter writeClosure(Closure<?> closure, Object[] args) {
+        JsonProjection parent = projection;
+        // the closure may be shared by threads: it is run from a shallow copy having its own delegate
+        Closure<?> copy = (Closure<?>) closure.clone();
+        copy.setDelegate(new ClosureDelegate(parent));
+        copy.setResolveStrategy(Closure.DELEGATE_FIRST);
+        beginObject();
+        try {
+            copy.call(args);
+        } finally {
+            projection = parent;
         }
+        endObject();
         return this;
     }
 
+    /**
+     * @return a new empty writer having the same settings as this one, without projection
+     */
+    public JsonWriter newWriter() {
+        return new JsonWriter(serializerRepository, ignoreMapNullValues).setListener(listener);
+    }
+
+    protected void beginObject() {
+        buffer.addChar('{');
+    }
+
+    protected void endObject() {
+        buffer.addChar('}');
+    }
+
+    protected void writeFieldName(String name, boolean first) {
+        if (!first) {
+            buffer.addChar(',');
+        }
+        buffer.addJsonFieldName(name);
+    }
+
+    /**
+     * Writes a field name which JSON form has been rendered beforehand
+     */
+    protected void writeFieldName(QuotedString name, boolean first) {
+        if (!first) {
+            buffer.addChar(',');
+        }
+        buffer.addChars(name.chars()).addChar(':');
+    }
+
+    protected void beginArray() {
+        buffer.addChar('[');
+    }
+
+    protected void endArray() {
+        buffer.addChar(']');
+    }
+
+    protected void writeSeparator() {
+        buffer.addChar(',');
+    }
+
+    /**
+     * @return the number of characters in the buffer, which does not count those already moved to an output
+     */
+    public int length() {
+        return buffer.len();
+    }
+
+    public int getBufferGrowthCount() {
+        return buffer.getGrowCount() - initialGrowCount;
+    }
+
+    /**
+     * Receives the {@code name value} calls of a closure, as {@link groovy.json.JsonDelegate} does, and writes them
+     */
+    private final class ClosureDelegate extends GroovyObjectSupport {
+
+        private final JsonProjection parent;
+        private boolean first = true;
+        private Set<String> names;
+
+        ClosureDelegate(JsonProjection parent) {
+            this.parent = parent;
+        }
+
+        @Override
+        public Object invokeMethod(String name, Object args) {
+            if (names == null) {
+                names = new HashSet<>();
+            }
+            if (!names.add(name)) {
+                throw new JsonException("Field '" + name + "' called twice by a closure");
+            }
+            Object value = null;
+            Closure<?> itemClosure = null;
+            if (args instanceof Object[]) {
+                Object[] arr = (Object[]) args;
+                if (arr.length == 1) {
+                    value = arr[0];
+                } else if (arr.length == 2 && arr[0] instanceof Collection && arr[1] instanceof Closure) {
+                    // name(collection) { item -> ... }: one object per item
+                    value = arr[0];
+                    itemClosure = (Closure<?>) arr[1];
+                } else {
+                    value = Arrays.asList(arr);
+                }
+            }
+            if (ignoreMapNullValues && value == null) {
+                return null;
+            }
+            if (parent != null && !enterField(parent, name)) {
+                return value;
+            }
+            writeFieldName(name, first);
+            first = false;
+            if (itemClosure == null) {
+                writeObject(value);
+            } else {
+                beginArray();
+                boolean firstItem = true;
+                for (Object item : (Collection<?>) value) {
+                    if (!firstItem) {
+                        writeSeparator();
+                    }
+                    firstItem = false;
+                    writeClosure(itemClosure, new Object[]{item});
+                }
+                endArray();
+            }
+            return value;
+        }
+    }
+
+    boolean enterField(JsonProjection parent, String name) {
+        JsonProjection field = parent.field(name);
+        projection = field == null || field.isAll() ? null : field;
+        return field != null;
+    }
+
     @SuppressWarnings("ConstantConditions")
     private static String prettyPrint(String jsonPayload) {
         int indentSize = 0;
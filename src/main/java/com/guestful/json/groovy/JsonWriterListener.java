@@ -0,0 +1,47 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.json.groovy;
+
+/**
+ * Receives the slow path events of a {@link JsonWriter}. Writers have no listener by default.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public interface JsonWriterListener {
+
+    /**
+     * No serializer is registered for this type: it is written as an array or through its properties
+     */
+    default void onSerializerMiss(Class<?> type) {
+    }
+
+    /**
+     * An object of this type is written by reflecting over its properties
+     */
+    default void onBeanFallback(Class<?> type) {
+    }
+
+    /**
+     * A whole document has been written
+     *
+     * @param rootType      the type of the serialized object, or null
+     * @param length        the number of chars written
+     * @param bufferGrowths the number of times the output buffer was reallocated
+     */
+    default void onDocumentWritten(Class<?> rootType, int length, int bufferGrowths) {
+    }
+
+}
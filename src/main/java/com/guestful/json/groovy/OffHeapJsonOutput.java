@@ -0,0 +1,201 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.json.groovy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * UTF-8 output held in a chain of direct buffers, for documents too large for a single heap array.
+ * <p>
+ * Segments are allocated as needed and never copied, and {@link #writeTo(WritableByteChannel)} hands them to the
+ * channel as they are, so that a FileChannel can write them without copying them back to the heap. Direct memory is
+ * only released when the output is garbage collected, so an output is meant to be {@link #clear() cleared} and reused
+ * for the next document rather than dropped.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public final class OffHeapJsonOutput implements JsonCharOutput {
+
+    private static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+
+    private final int segmentSize;
+    private final List<ByteBuffer> segments = new ArrayList<>();
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    private ByteBuffer current;
+    // number of segments holding the current document, the next ones are kept for reuse
+    private int used;
+    private long size;
+    private long charCount;
+    private boolean finished;
+    // a high surrogate ending the previous write, waiting for its low surrogate
+    private char pending;
+
+    public OffHeapJsonOutput() {
+        this(DEFAULT_SEGMENT_SIZE);
+    }
+
+    public OffHeapJsonOutput(int segmentSize) {
+        if (segmentSize < 16) throw new IllegalArgumentException("segmentSize too small: " + segmentSize);
+        this.segmentSize = segmentSize;
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length) {
+        if (finished) throw new IllegalStateException("Output is finished");
+        if (length == 0) return;
+        charCount += length;
+        while (pending != 0 && length > 0) {
+            char high = pending;
+            pending = 0;
+            encode(CharBuffer.wrap(new char[]{high, chars[offset]}));
+            offset++;
+            length--;
+        }
+        if (length > 0) {
+            encode(CharBuffer.wrap(chars, offset, length));
+        }
+    }
+
+    /**
+     * Ends the output: nothing can be written after
+     */
+    public OffHeapJsonOutput finish() {
+        if (!finished) {
+            CharBuffer in = pending == 0 ? CharBuffer.allocate(0) : CharBuffer.wrap(new char[]{pending});
+            pending = 0;
+            while (encoder.encode(in, segment(), true).isOverflow()) {
+                next();
+            }
+            while (encoder.flush(segment()).isOverflow()) {
+                next();
+            }
+            finished = true;
+        }
+        return this;
+    }
+
+    /**
+     * @return the number of bytes written so far
+     */
+    public long size() {
+        long total = size;
+        if (current != null) {
+            total += current.position();
+        }
+        return total;
+    }
+
+    @Override
+    public long getCharCount() {
+        return charCount;
+    }
+
+    /**
+     * @return read-only views of the bytes written so far, one per segment
+     */
+    public ByteBuffer[] toByteBuffers() {
+        ByteBuffer[] buffers = new ByteBuffer[used];
+        for (int i = 0; i < buffers.length; i++) {
+            ByteBuffer segment = segments.get(i).duplicate();
+            segment.flip();
+            buffers[i] = segment.asReadOnlyBuffer();
+        }
+        return buffers;
+    }
+
+    /**
+     * Writes all the bytes to the channel, which may be done several times
+     *
+     * @return the number of bytes written
+     */
+    public long writeTo(WritableByteChannel channel) throws IOException {
+        finish();
+        ByteBuffer[] buffers = toByteBuffers();
+        long written = 0;
+        if (channel instanceof GatheringByteChannel) {
+            long total = size();
+            while (written < total) {
+                written += ((GatheringByteChannel) channel).write(buffers);
+            }
+        } else {
+            for (ByteBuffer buffer : buffers) {
+                while (buffer.hasRemaining()) {
+                    written += channel.write(buffer);
+                }
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Empties the output for a new document, keeping its segments to be rewritten
+     */
+    public void clear() {
+        for (int i = 0; i < used; i++) {
+            segments.get(i).clear();
+        }
+        used = 0;
+        current = null;
+        size = 0;
+        charCount = 0;
+        pending = 0;
+        finished = false;
+        encoder.reset();
+    }
+
+    private void encode(CharBuffer in) {
+        while (true) {
+            CoderResult result = encoder.encode(in, segment(), false);
+            if (result.isOverflow()) {
+                next();
+            } else {
+                if (in.hasRemaining()) {
+                    pending = in.get();
+                }
+                return;
+            }
+        }
+    }
+
+    private ByteBuffer segment() {
+        if (current == null) {
+            if (used == segments.size()) {
+                segments.add(ByteBuffer.allocateDirect(segmentSize));
+            }
+            current = segments.get(used++);
+        }
+        return current;
+    }
+
+    private void next() {
+        size += current.position();
+        current = null;
+    }
+
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.json.groovy;
+
+import groovy.lang.ExpandoMetaClass;
+import groovy.lang.GroovySystem;
+import groovy.lang.MetaBeanProperty;
+import groovy.lang.MetaClass;
+import groovy.lang.MetaMethod;
+import groovy.lang.MetaProperty;
+import org.codehaus.groovy.reflection.CachedMethod;
+import org.codehaus.groovy.runtime.InvokerHelper;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The serializable properties of a MetaClass, in MetaClass order, computed once per class and rebuilt when the class
+ * gets another MetaClass.
+ * <p>
+ * Plans of an {@link ExpandoMetaClass}, which can get new properties at any time, and of per-instance MetaClasses are
+ * not cached: they are computed for each bean.
+ * <p>
+ * Properties backed by a public getter are read through a {@link MethodHandle}, the others through their
+ * {@link MetaProperty}.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+final class PropertyPlan {
+
+    private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+    private static final ClassValue<Slot> PLANS = new ClassValue<Slot>() {
+        @Override
+        protected Slot computeValue(Class<?> type) {
+            return new Slot();
+        }
+    };
+
+    private final MetaClass metaClass;
+    private final String[] names;
+    private final MetaProperty[] properties;
+    private final MethodHandle[] getters;
+
+    private PropertyPlan(MetaClass metaClass) {
+        List<MetaProperty> list = new ArrayList<>();
+        for (MetaProperty property : metaClass.getProperties()) {
+            if (!isIgnoredProperty(property.getName())) {
+                list.add(property);
+            }
+        }
+        this.metaClass = metaClass;
+        this.properties = list.toArray(new MetaProperty[list.size()]);
+        this.names = new String[properties.length];
+        this.getters = new MethodHandle[properties.length];
+        for (int i = 0; i < properties.length; i++) {
+            names[i] = properties[i].getName();
+            getters[i] = getter(properties[i]);
+        }
+    }
+
+    static PropertyPlan of(Object bean) {
+        MetaClass metaClass = InvokerHelper.getMetaClass(bean);
+        if (metaClass instanceof ExpandoMetaClass || metaClass != GroovySystem.getMetaClassRegistry().getMetaClass(bean.getClass())) {
+            return new PropertyPlan(metaClass);
+        }
+        Slot slot = PLANS.get(bean.getClass());
+        PropertyPlan plan = slot.plan;
+        if (plan == null || plan.metaClass != metaClass) {
+            slot.plan = plan = new PropertyPlan(metaClass);
+        }
+        return plan;
+    }
+
+    int size() {
+        return names.length;
+    }
+
+    String getName(int index) {
+        return names[index];
+    }
+
+    Object getValue(int index, Object bean) throws Exception {
+        MethodHandle getter = getters[index];
+        if (getter == null) {
+            return properties[index].getProperty(bean);
+        }
+        try {
+            return (Object) getter.invokeExact(bean);
+        } catch (Exception | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new UndeclaredThrowableException(t);
+        }
+    }
+
+    private static boolean isIgnoredProperty(String name) {
+        return "class".equals(name) || "declaringClass".equals(name) || "metaClass".equals(name);
+    }
+
+    private static MethodHandle getter(MetaProperty property) {
+        if (!(property instanceof MetaBeanProperty)) {
+            return null;
+        }
+        MetaMethod getter = ((MetaBeanProperty) property).getGetter();
+        if (!(getter instanceof CachedMethod) || getter.isStatic()) {
+            return null;
+        }
+        Method method = ((CachedMethod) getter).getCachedMethod();
+        if (!Modifier.isPublic(method.getModifiers()) || !Modifier.isPublic(method.getDeclaringClass().getModifiers())) {
+            return null;
+        }
+        try {
+            return MethodHandles.publicLookup().unreflect(method).asType(GETTER_TYPE);
+        } catch (IllegalAccessException e) {
+            return null;
+        }
+    }
+
+    private static final class Slot {
+        volatile PropertyPlan plan;
+    }
+
+}
@@ -0,0 +1,58 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.json.groovy;
+
+import java.util.Arrays;
+
+/**
+ * A string which JSON form (escaped and quoted) is rendered once, so that writing it is a single array copy.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public final class QuotedString {
+
+    private final String value;
+    private final char[] chars;
+
+    private QuotedString(String value) {
+        CharBuf buf = CharBuf.create(value.length() + 2);
+        if (value.isEmpty()) {
+            buf.addChar('"').addChar('"');
+        } else {
+            buf.addJsonEscapedString(value);
+        }
+        this.value = value;
+        this.chars = Arrays.copyOf(buf.toCharArray(), buf.len());
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    char[] chars() {
+        return chars;
+    }
+
+    @Override
+    public String toString() {
+        return value;
+    }
+
+    public static QuotedString of(String value) {
+        return new QuotedString(value);
+    }
+
+}
@@ -0,0 +1,168 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.json.groovy;
+
+import groovy.json.JsonParserType;
+import groovy.json.JsonSlurper;
+
+import javax.json.JsonException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An already serialized JSON fragment, copied verbatim by {@link JsonWriter} instead of being escaped as a string.
+ * <p>
+ * Fragments are trusted by default. A fragment created with {@link #withValidation()} is parsed once, the first
+ * time it is written, and fails the serialization if it is not a single valid JSON value: anything but whitespace after
+ * the value is rejected. The outcome is remembered, so an invalid fragment fails every write without being parsed again.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public final class RawJson {
+
+    private static final String[] LITERALS = {"true", "false", "null"};
+
+    private final String string;
+    private final byte[] bytes;
+    private final boolean validating;
+
+    private volatile char[] chars;
+    private volatile boolean valid;
+    private volatile JsonException invalid;
+
+    private RawJson(String string, char[] chars, byte[] bytes, boolean validating) {
+        this.string = string;
+        this.chars = chars;
+        this.bytes = bytes;
+        this.validating = validating;
+    }
+
+    public RawJson withValidation() {
+        return validating ? this : new RawJson(string, chars, bytes, true);
+    }
+
+    public RawJson validate() throws JsonException {
+        if (!valid) {
+            JsonException e = invalid;
+            if (e != null) throw e;
+            char[] c = string != null ? string.toCharArray() : chars();
+            try {
+                JsonSlurper slurper = new JsonSlurper();
+                slurper.setType(JsonParserType.CHAR_BUFFER);
+                slurper.parse(c);
+                int end = endOfValue(c);
+                if (end < c.length) {
+                    throw new JsonException("Invalid raw JSON: unexpected content at offset " + end);
+                }
+            } catch (JsonException ex) {
+                invalid = ex;
+                throw ex;
+            } catch (RuntimeException ex) {
+                invalid = e = new JsonException("Invalid raw JSON: " + ex.getMessage(), ex);
+                throw e;
+            }
+            valid = true;
+        }
+        return this;
+    }
+
+    /**
+     * Completes the lenient JsonSlurper pass: finds where the first value of the document ends, and rejects literals
+     * and trailing commas which the slurper lets through.
+     *
+     * @return the offset of the first unexpected char, or the length of the document if there is none
+     */
+    private static int endOfValue(char[] c) {
+        int i = skipWhitespace(c, 0);
+        if (i < c.length && Character.isLetter(c[i])) {
+            for (String literal : LITERALS) {
+                if (new String(c, i, Math.min(literal.length(), c.length - i)).equals(literal)) {
+                    return skipWhitespace(c, i + literal.length());
+                }
+            }
+            return i;
+        }
+        int depth = 0;
+        boolean inString = false;
+        for (; i < c.length; i++) {
+            char ch = c[i];
+            if (inString) {
+                if (ch == '\\') {
+                    i++;
+                } else if (ch == '"') {
+                    inString = false;
+                    if (depth == 0) return skipWhitespace(c, i + 1);
+                }
+            } else if (ch == '"') {
+                inString = true;
+            } else if (ch == '{' || ch == '[') {
+                depth++;
+            } else if (ch == '}' || ch == ']') {
+                if (--depth == 0) return skipWhitespace(c, i + 1);
+            } else if (ch == ',') {
+                int next = skipWhitespace(c, i + 1);
+                if (next < c.length && (c[next] == '}' || c[next] == ']')) return next;
+            } else if (depth == 0 && isWhitespace(ch)) {
+                // end of a number
+                return skipWhitespace(c, i);
+            }
+        }
+        return i;
+    }
+
+    private static int skipWhitespace(char[] c, int i) {
+        while (i < c.length && isWhitespace(c[i])) i++;
+        return i;
+    }
+
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+
+    void writeTo(CharBuf buffer) {
+        if (validating) validate();
+        if (string != null) {
+            buffer.add(string);
+        } else {
+            buffer.addChars(chars());
+        }
+    }
+
+    private char[] chars() {
+        char[] c = chars;
+        if (c == null) {
+            chars = c = new String(bytes, StandardCharsets.UTF_8).toCharArray();
+        }
+        return c;
+    }
+
+    @Override
+    public String toString() {
+        return string != null ? string : new String(chars());
+    }
+
+    public static RawJson of(String json) {
+        return new RawJson(json, null, null, false);
+    }
+
+    public static RawJson of(char[] json) {
+        return new RawJson(null, json, null, false);
+    }
+
+    public static RawJson ofUtf8(byte[] json) {
+        return new RawJson(null, null, json, false);
+    }
+
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.json.groovy;
+
+import groovy.json.internal.FastStringUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * JSON held in fixed-size chunks of chars, so that a growing document is never copied into a larger array.
+ * <p>
+ * The chunks are written out one after the other. {@link #toString()} joins them into a single array, which the
+ * returned string shares on JDK 8 only: later JDKs copy it once more into their own string storage.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public final class SegmentedJsonOutput implements JsonCharOutput, CharSequence {
+
+    private static final int DEFAULT_CHUNK_SIZE = 16 * 1024;
+
+    private final int chunkSize;
+    private final List<char[]> chunks = new ArrayList<>();
+
+    private char[] current;
+    // position in the current chunk
+    private int position;
+    private long charCount;
+
+    public SegmentedJsonOutput() {
+        this(DEFAULT_CHUNK_SIZE);
+    }
+
+    public SegmentedJsonOutput(int chunkSize) {
+        if (chunkSize <= 0) throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+        this.chunkSize = chunkSize;
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length) {
+        charCount += length;
+        while (length > 0) {
+            if (current == null || position == chunkSize) {
+                current = new char[chunkSize];
+                chunks.add(current);
+                position = 0;
+            }
+            int n = Math.min(length, chunkSize - position);
+            System.arraycopy(chars, offset, current, position, n);
+            position += n;
+            offset += n;
+            length -= n;
+        }
+    }
+
+    @Override
+    public long getCharCount() {
+        return charCount;
+    }
+
+    @Override
+    public int length() {
+        if (charCount > Integer.MAX_VALUE) throw new IllegalStateException("Too many chars for a CharSequence: " + charCount);
+        return (int) charCount;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= charCount) throw new IndexOutOfBoundsException("Index: " + index + ", length: " + charCount);
+        return chunks.get(index / chunkSize)[index % chunkSize];
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().substring(start, end);
+    }
+
+    /**
+     * Writes the chunks one after the other, without flushing the writer
+     */
+    public void writeTo(Writer writer) throws IOException {
+        int last = chunks.size() - 1;
+        for (int i = 0; i < last; i++) {
+            writer.write(chunks.get(i), 0, chunkSize);
+        }
+        if (last >= 0) {
+            writer.write(current, 0, position);
+        }
+    }
+
+    public void writeTo(OutputStream os, Charset charset) throws IOException {
+        Writer writer = new OutputStreamWriter(os, charset);
+        writeTo(writer);
+        writer.flush();
+    }
+
+    @Override
+    public String toString() {
+        char[] chars = new char[length()];
+        int offset = 0;
+        int last = chunks.size() - 1;
+        for (int i = 0; i < last; i++) {
+            System.arraycopy(chunks.get(i), 0, chars, offset, chunkSize);
+            offset += chunkSize;
+        }
+        if (last >= 0) {
+            System.arraycopy(current, 0, chars, offset, position);
+        }
+        return FastStringUtils.noCopyStringFromChars(chars);
+    }
+
+    /**
+     * Drops the chunks
+     */
+    public void clear() {
+        chunks.clear();
+        current = null;
+        position = 0;
+        charCount = 0;
+    }
+
+}
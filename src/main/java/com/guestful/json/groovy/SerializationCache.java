@@ -0,0 +1,173 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.json.groovy;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Size-bounded cache of rendered JSON fragments, for immutable objects serialized over and over.
+ * <p>
+ * Fragments are keyed either by object identity (the cache then holds a strong reference to the object until it is
+ * evicted) or by a version key computed from the object, and the least recently used fragment is evicted first.
+ * Fragments are rendered with the settings of the writer that first meets the object, so a cache should not be shared
+ * between serializers configured differently. Objects written under a {@link com.guestful.json.JsonProjection}, or by a
+ * writer other than a plain text {@link JsonWriter} (such as a {@link CborWriter}), bypass the cache.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class SerializationCache {
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final Map<Object, RawJson> fragments;
+    // a lock rather than synchronized blocks, which would pin virtual threads on older JDKs
+    private final Lock lock = new ReentrantLock();
+
+    public SerializationCache(int maxSize) {
+        if (maxSize <= 0) throw new IllegalArgumentException("maxSize must be positive: " + maxSize);
+        this.fragments = new LinkedHashMap<Object, RawJson>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, RawJson> eldest) {
+                if (size() > maxSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Caches the output of a serializer by object identity
+     */
+    public <T> JsonTypeSerializer<T> cached(JsonTypeSerializer<T> serializer) {
+        return cached(serializer, null);
+    }
+
+    /**
+     * Caches the output of a serializer by version key: objects having equal keys are considered to render the same
+     */
+    public <T> JsonTypeSerializer<T> cached(JsonTypeSerializer<T> serializer, Function<? super T, ?> versionKey) {
+        return (o, writer) -> {
+            if (writer.getProjection() != null || writer.getClass() != JsonWriter.class) {
+                // fragments are complete JSON renderings, so they can neither serve a projection nor be written by a
+                // binary or generator-backed writer without being parsed again
+                serializer.write(o, writer);
+                return;
+            }
+            Object key = versionKey == null ? new IdentityKey(o) : new VersionKey(o.getClass(), versionKey.apply(o));
+            RawJson fragment;
+            lock.lock();
+            try {
+                fragment = fragments.get(key);
+            } finally {
+                lock.unlock();
+            }
+            if (fragment != null) {
+                hits.increment();
+            } else {
+                misses.increment();
+                JsonWriter fragmentWriter = writer.newWriter();
+                serializer.write(o, fragmentWriter);
+                fragment = RawJson.of(fragmentWriter.toString());
+                lock.lock();
+                try {
+                    fragments.put(key, fragment);
+                } finally {
+                    lock.unlock();
+                }
+            }
+            writer.writeRawJson(fragment);
+        };
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return fragments.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            fragments.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static final class IdentityKey {
+        private final Object o;
+
+        IdentityKey(Object o) {
+            this.o = o;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof IdentityKey && ((IdentityKey) other).o == o;
+        }
+
+        @Override
+        public int hashCode() {
+            return System.identityHashCode(o);
+        }
+    }
+
+    private static final class VersionKey {
+        private final Class<?> type;
+        private final Object version;
+
+        VersionKey(Class<?> type, Object version) {
+            this.type = type;
+            this.version = version;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof VersionKey)) return false;
+            VersionKey that = (VersionKey) other;
+            return type == that.type && (version == null ? that.version == null : version.equals(that.version));
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * type.hashCode() + (version == null ? 0 : version.hashCode());
+        }
+    }
+
+}
@@ -0,0 +1,259 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.json.groovy;
+
+import com.guestful.json.JsonByteSource;
+import com.guestful.json.JsonMapperException;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * Serializes a document a few values at a time, as buffers are handed to {@link #fill(ByteBuffer)}.
+ * <p>
+ * Maps, collections, object arrays and beans are walked with an explicit stack of frames, so serialization can stop
+ * between any two of their items. Other values, including those having a custom serializer, are written at once and
+ * their output is kept until it has been fully encoded.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+final class StreamingJsonSource implements JsonByteSource {
+
+    private static final int MIN_CHUNK = 256;
+
+    private final GroovyJsonSerializer repository;
+    private final Deque<Frame> frames = new ArrayDeque<>();
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    private Object root;
+    private boolean started;
+    private CharBuffer pending = CharBuffer.allocate(0);
+
+    StreamingJsonSource(GroovyJsonSerializer repository, Object root) {
+        this.repository = repository;
+        this.root = root;
+    }
+
+    @Override
+    public boolean fill(ByteBuffer buffer) throws JsonMapperException {
+        try {
+            while (true) {
+                if (pending.hasRemaining()) {
+                    CoderResult result = encoder.encode(pending, buffer, false);
+                    if (result.isOverflow()) {
+                        return false;
+                    }
+                }
+                if (started && frames.isEmpty()) {
+                    return true;
+                }
+                JsonWriter writer = newWriter();
+                int chunk = Math.max(MIN_CHUNK, buffer.remaining());
+                do {
+                    step(writer);
+                } while (writer.length() < chunk && !frames.isEmpty());
+                pending = CharBuffer.wrap(writer.toString());
+            }
+        } catch (RuntimeException e) {
+            throw new JsonMapperException("Error writing object to JSON", e);
+        }
+    }
+
+    private void step(JsonWriter writer) {
+        if (!started) {
+            started = true;
+            Object o = root;
+            root = null;
+            writeValue(writer, o);
+            return;
+        }
+        Frame frame = frames.peek();
+        if (!frame.writeNext(writer)) {
+            frame.end(writer);
+            frames.pop();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void writeValue(JsonWriter writer, Object o) {
+        if (o == null) {
+            writer.writeNull();
+            return;
+        }
+        Class<?> type = o.getClass();
+        JsonTypeSerializer<?> serializer = repository.findSerializer(type);
+        if (serializer == GroovyJsonSerializer.MAP) {
+            push(writer, new MapFrame(((Map<?, ?>) o).entrySet().iterator()));
+        } else if (serializer == GroovyJsonSerializer.ITERABLE) {
+            push(writer, new ArrayFrame(((Iterable<?>) o).iterator()));
+        } else if (serializer == GroovyJsonSerializer.ITERATOR) {
+            push(writer, new ArrayFrame((Iterator<?>) o));
+        } else if (serializer == GroovyJsonSerializer.STREAM) {
+            push(writer, new ArrayFrame(((Stream<?>) o).iterator()));
+        } else if (serializer == null && o instanceof Object[]) {
+            push(writer, new ArrayFrame(Arrays.asList((Object[]) o).iterator()));
+        } else if (serializer == null && !type.isArray()) {
+            if (repository.getListener() != null) {
+                repository.getListener().onSerializerMiss(type);
+                repository.getListener().onBeanFallback(type);
+            }
+            push(writer, new BeanFrame(o));
+        } else {
+            writer.writeObject(o);
+        }
+    }
+
+    private void push(JsonWriter writer, Frame frame) {
+        frame.begin(writer);
+        frames.push(frame);
+    }
+
+    private JsonWriter newWriter() {
+        return new JsonWriter(repository, repository.isIgnoreMapNullValues()).setListener(repository.getListener());
+    }
+
+    private abstract static class Frame {
+        boolean first = true;
+
+        abstract void begin(JsonWriter writer);
+
+        abstract void end(JsonWriter writer);
+
+        /**
+         * @return false when there is no more item to write
+         */
+        abstract boolean writeNext(JsonWriter writer);
+    }
+
+    private final class ArrayFrame extends Frame {
+        final Iterator<?> items;
+
+        ArrayFrame(Iterator<?> items) {
+            this.items = items;
+        }
+
+        @Override
+        void begin(JsonWriter writer) {
+            writer.beginArray();
+        }
+
+        @Override
+        void end(JsonWriter writer) {
+            writer.endArray();
+        }
+
+        @Override
+        boolean writeNext(JsonWriter writer) {
+            if (!items.hasNext()) return false;
+            if (!first) writer.writeSeparator();
+            first = false;
+            writeValue(writer, items.next());
+            return true;
+        }
+    }
+
+    private final class MapFrame extends Frame {
+        final Iterator<? extends Map.Entry<?, ?>> entries;
+
+        MapFrame(Iterator<? extends Map.Entry<?, ?>> entries) {
+            this.entries = entries;
+        }
+
+        @Override
+        void begin(JsonWriter writer) {
+            writer.beginObject();
+        }
+
+        @Override
+        void end(JsonWriter writer) {
+            writer.endObject();
+        }
+
+        @Override
+        boolean writeNext(JsonWriter writer) {
+            while (entries.hasNext()) {
+                Map.Entry<?, ?> entry = entries.next();
+                if (writer.isIgnoreMapNullValues() && entry.getValue() == null) {
+                    continue;
+                }
+                if (entry.getKey() == null) {
+                    throw new IllegalArgumentException("Maps with null keys can\'t be converted to JSON");
+                }
+                writer.writeFieldName(entry.getKey().toString(), first);
+                first = false;
+                writeValue(writer, entry.getValue());
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private final class BeanFrame extends Frame {
+        final Object bean;
+        final PropertyPlan plan;
+        int index;
+
+        BeanFrame(Object bean) {
+            this.bean = bean;
+            this.plan = PropertyPlan.of(bean);
+        }
+
+        @Override
+        void begin(JsonWriter writer) {
+            writer.beginObject();
+        }
+
+        @Override
+        void end(JsonWriter writer) {
+            writer.endObject();
+        }
+
+        @Override
+        boolean writeNext(JsonWriter writer) {
+            while (index < plan.size()) {
+                int i = index++;
+                String name = plan.getName(i);
+                Object value;
+                try {
+                    value = plan.getValue(i, bean);
+                } catch (Exception e) {
+                    continue;
+                }
+                if (writer.isIgnoreMapNullValues() && value == null) {
+                    continue;
+                }
+                writer.writeFieldName(name, first);
+                first = false;
+                writeValue(writer, value);
+                return true;
+            }
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,321 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.json.jackson;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.guestful.json.groovy.CharBuf;
+import com.guestful.json.groovy.JsonWriter;
+import com.guestful.json.groovy.QuotedString;
+import com.guestful.json.groovy.RawJson;
+import com.guestful.json.groovy.SerializerRepository;
+
+import javax.json.JsonException;
+import javax.json.JsonValue;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Array;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.OffsetDateTime;
+import java.time.ZonedDateTime;
+import java.util.Iterator;
+
+/**
+ * A {@link JsonWriter} writing to a Jackson {@link JsonGenerator}, so that {@link com.guestful.json.groovy.JsonTypeSerializer}
+ * can be used by Jackson. Nested objects are handed back to Jackson.
+ * <p>
+ * {@link IOException} thrown by the generator are rethrown as {@link UncheckedIOException}.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class GeneratorJsonWriter extends JsonWriter {
+
+    private final JsonGenerator generator;
+    private final SerializerProvider provider;
+
+    public GeneratorJsonWriter(SerializerRepository serializerRepository, boolean ignoreMapNullValues, JsonGenerator generator, SerializerProvider provider) {
+        super(serializerRepository, ignoreMapNullValues, CharBuf.create(0));
+        this.generator = generator;
+        this.provider = provider;
+    }
+
+    public JsonGenerator getGenerator() {
+        return generator;
+    }
+
+    @Override
+    public JsonWriter writeEscapedString(char[] chars) {
+        try {
+            generator.writeString(chars, 0, chars.length);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return this;
+    }
+
+    @Override
+    public JsonWriter writeEscapedString(CharSequence s) {
+        return writeText(s.toString());
+    }
+
+    @Override
+    public JsonWriter writeString(CharSequence s) {
+        return writeText(s.toString());
+    }
+
+    @Override
+    public JsonWriter writeString(QuotedString s) {
+        return writeText(s.getValue());
+    }
+
+    @Override
+    public JsonWriter writeRaw(String s) {
+        try {
+            generator.writeRawValue(s);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return this;
+    }
+
+    @Override
+    public JsonWriter writeRawJson(RawJson o) {
+        return writeRaw(o.toString());
+    }
+
+    @Override
+    public JsonWriter writeJsonValue(JsonValue o) {
+        return writeRaw(o.toString());
+    }
+
+    @Override
+    public JsonWriter writeBoolean(Boolean o) {
+        try {
+            generator.writeBoolean(o);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return this;
+    }
+
+    @Override
+    public JsonWriter writeDouble(Double key) {
+        try {
+            generator.writeNumber(key);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return this;
+    }
+
+    @Override
+    public JsonWriter writeFloat(Float key) {
+        try {
+            generator.writeNumber(key);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return this;
+    }
+
+    @Override
+    public JsonWriter writeInt(Integer key) {
+        try {
+            generator.writeNumber(key);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return this;
+    }
+
+    @Override
+    public JsonWriter writeShort(Short key) {
+        return writeInt(key.intValue());
+    }
+
+    @Override
+    public JsonWriter writeByte(Byte key) {
+        return writeInt(key.intValue());
+    }
+
+    @Override
+    public JsonWriter writeLong(Long key) {
+        try {
+            generator.writeNumber(key);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return this;
+    }
+
+    @Override
+    public JsonWriter writeBigInteger(BigInteger key) {
+        try {
+            generator.writeNumber(key);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return this;
+    }
+
+    @Override
+    public JsonWriter writeBigDecimal(BigDecimal key) {
+        try {
+            generator.writeNumber(key);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return this;
+    }
+
+    @Override
+    public JsonWriter writeNull() {
+        try {
+            generator.writeNull();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return this;
+    }
+
+    @Override
+    public JsonWriter writeUtcDateTime(long epochSecond) {
+        return writeQuotedText(newWriter().writeUtcDateTime(epochSecond).toString());
+    }
+
+    @Override
+    public JsonWriter writeOffsetDateTime(OffsetDateTime o) {
+        return writeQuotedText(newWriter().writeOffsetDateTime(o).toString());
+    }
+
+    @Override
+    public JsonWriter writeZonedDateTime(ZonedDateTime o) {
+        return writeQuotedText(newWriter().writeZonedDateTime(o).toString());
+    }
+
+    @Override
+    public JsonWriter writeIterator(Iterator<?> o) {
+        beginArray();
+        while (o.hasNext()) {
+            writeObject(o.next());
+        }
+        endArray();
+        return this;
+    }
+
+    @Override
+    public JsonWriter writeArray(Object array) {
+        if (!array.getClass().isArray()) {
+            throw new JsonException("not an array: " + array.getClass());
+        }
+        beginArray();
+        for (int i = 0, length = Array.getLength(array); i < length; i++) {
+            writeObject(Array.get(array, i));
+        }
+        endArray();
+        return this;
+    }
+
+    /**
+     * Nested objects are serialized by Jackson, with the serializers it has for their type
+     */
+    @Override
+    public JsonWriter writeObject(Object object) {
+        try {
+            provider.defaultSerializeValue(object, generator);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return this;
+    }
+
+    @Override
+    protected void beginObject() {
+        try {
+            generator.writeStartObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    protected void endObject() {
+        try {
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    protected void writeFieldName(String name, boolean first) {
+        try {
+            generator.writeFieldName(name);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    protected void writeFieldName(QuotedString name, boolean first) {
+        writeFieldName(name.getValue(), first);
+    }
+
+    @Override
+    protected void beginArray() {
+        try {
+            generator.writeStartArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    protected void endArray() {
+        try {
+            generator.writeEndArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    protected void writeSeparator() {
+    }
+
+    /**
+     * The output is written to the generator: this only describes it
+     */
+    @Override
+    public String toString(boolean pretty) {
+        return "GeneratorJsonWriter[" + generator.getClass().getSimpleName() + "]";
+    }
+
+    private JsonWriter writeQuotedText(String quoted) {
+        return writeText(quoted.substring(1, quoted.length() - 1));
+    }
+
+    private JsonWriter writeText(String s) {
+        try {
+            generator.writeString(s);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return this;
+    }
+
+}
@@ -15,43 +15,247 @@
  */
 package com.guestful.json.jackson;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.Module;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.guestful.json.JsonBatch;
 import com.guestful.json.JsonMapper;
 import com.guestful.json.JsonMapperException;
+import com.guestful.json.groovy.SerializerRepository;
 
+import java.io.CharArrayWriter;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.io.Writer;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * date 2014-05-29
+ * <p>
+ * UTF-8 streams and files are handed to Jackson as bytes, so that its byte-based parser and generator are used instead
+ * of going through a {@link Reader} or a {@link Writer}. Readers and writers are resolved once per type and cached, so
+ * that root (de)serializers are not looked up on each call.
  *
  * @author Mathieu Carbou (mathieu.carbou@gmail.com)
  */
 public class JacksonJsonMapper implements JsonMapper {
 
-    private final ObjectMapper mapper;
+    private static final int MAX_GENERIC_READERS = 512;
+
+    private volatile ObjectMapper mapper;
+
+    private volatile ClassValue<ObjectReader> readers;
+    private volatile ClassValue<ObjectWriter> writers;
+    private volatile ConcurrentMap<Type, ObjectReader> genericReaders;
 
     public JacksonJsonMapper(ObjectMapper mapper) {
         this.mapper = mapper;
+        resetCaches();
     }
 
     public JacksonJsonMapper() {
-        mapper = new ObjectMapper()
+        this(new ObjectMapper()
             .disable(DeserializationFeature.ADJUST_DATES_TO_CONTEXT_TIME_ZONE)
-            .disable(SerializationFeature.WRITE_NULL_MAP_VALUES);
+            .disable(SerializationFeature.WRITE_NULL_MAP_VALUES));
+    }
+
+    @Override
+    public <T> T fromJson(String json, Class<T> type) throws JsonMapperException {
+        try {
+            return reader(type).readValue(json);
+        } catch (IOException e) {
+            throw new JsonMapperException(e);
+        }
     }
 
     @Override
     public <T> T fromJson(Reader reader, Class<T> type) throws JsonMapperException, IOException {
-        return mapper.readValue(reader, type);
+        return reader(type).readValue(reader);
+    }
+
+    @Override
+    public <T> T fromJson(InputStream is, Charset charset, Class<T> type) throws JsonMapperException, IOException {
+        return StandardCharsets.UTF_8.equals(charset) ? reader(type).readValue(is) : JsonMapper.super.fromJson(is, charset, type);
+    }
+
+    @Override
+    public <T> T fromJson(File file, Class<T> type) throws JsonMapperException, IOException {
+        return reader(type).readValue(file);
+    }
+
+    /**
+     * Reads a generic type, such as {@code new TypeReference<List<Order>>() {}}
+     */
+    public <T> T fromJson(String json, TypeReference<T> type) throws JsonMapperException {
+        try {
+            return reader(type).readValue(json);
+        } catch (IOException e) {
+            throw new JsonMapperException(e);
+        }
+    }
+
+    public <T> T fromJson(Reader reader, TypeReference<T> type) throws JsonMapperException, IOException {
+        return reader(type).readValue(reader);
+    }
+
+    /**
+     * Reads a generic type from UTF-8 bytes
+     */
+    public <T> T fromJson(InputStream is, TypeReference<T> type) throws JsonMapperException, IOException {
+        return reader(type).readValue(is);
+    }
+
+    @Override
+    public <T> T convertValue(Object value, Class<T> type) throws JsonMapperException {
+        try {
+            return mapper.convertValue(value, type);
+        } catch (IllegalArgumentException e) {
+            throw new JsonMapperException("Error converting value to " + type.getSimpleName(), e);
+        }
+    }
+
+    /**
+     * Writes all objects through a single generator, without separator between root values
+     */
+    @Override
+    public JsonBatch toJsonBatch(Collection<?> objects) throws JsonMapperException {
+        CharArrayWriter writer = new CharArrayWriter();
+        int[] offsets = new int[objects.size() + 1];
+        int i = 0;
+        try (JsonGenerator generator = mapper.getFactory().createGenerator(writer)) {
+            generator.setRootValueSeparator(null);
+            for (Object o : objects) {
+                writer(o).writeValue(generator, o);
+                generator.flush();
+                offsets[++i] = writer.size();
+            }
+        } catch (IOException e) {
+            throw new JsonMapperException(e);
+        }
+        return new JsonBatch(writer.toCharArray(), offsets);
+    }
+
+    @Override
+    public String toJson(Object o) throws JsonMapperException {
+        try {
+            return writer(o).writeValueAsString(o);
+        } catch (IOException e) {
+            throw new JsonMapperException(e);
+        }
     }
 
     @Override
     public void toJson(Object o, Writer writer) throws JsonMapperException, IOException {
-        mapper.writeValue(writer, o);
+        writer(o).writeValue(writer, o);
+    }
+
+    @Override
+    public void toJson(Object o, OutputStream os, Charset charset) throws JsonMapperException, IOException {
+        if (StandardCharsets.UTF_8.equals(charset)) {
+            writer(o).writeValue(os, o);
+        } else {
+            JsonMapper.super.toJson(o, os, charset);
+        }
+    }
+
+    @Override
+    public void toJson(Object o, File f) throws JsonMapperException, IOException {
+        writer(o).writeValue(f, o);
+    }
+
+    /**
+     * Registers the Afterburner module, which replaces reflection by generated bytecode to access properties and
+     * create instances. Requires jackson-module-afterburner, an optional dependency: the module is only loaded by this
+     * call, and a JsonMapperException is thrown when it is missing.
+     *
+     * @see #registerModule(Module)
+     */
+    public JacksonJsonMapper enableAfterburner() {
+        Module module;
+        try {
+            module = Afterburner.create();
+        } catch (NoClassDefFoundError e) {
+            throw new JsonMapperException("jackson-module-afterburner is not on the classpath", e);
+        }
+        return registerModule(module);
+    }
+
+    /**
+     * Serializes the given types with the serializers of the repository, such as a GroovyJsonSerializer
+     *
+     * @see #registerModule(Module)
+     */
+    public JacksonJsonMapper addSerializers(SerializerRepository repository, Class<?>... types) {
+        return registerModule(new SerializerRepositoryModule(repository, types));
+    }
+
+    /**
+     * Jackson keeps the (de)serializers it resolved, which a module registered afterwards would not replace: the module
+     * is registered on a copy of the ObjectMapper, so that it applies to the types already used too. The ObjectMapper
+     * given to the constructor is left unchanged.
+     */
+    public JacksonJsonMapper registerModule(Module module) {
+        mapper = mapper.copy().registerModule(module);
+        // cached readers and writers hold the configuration they were created with
+        resetCaches();
+        return this;
+    }
+
+    private ObjectReader reader(Class<?> type) {
+        return readers.get(type);
+    }
+
+    private ObjectReader reader(TypeReference<?> type) {
+        ConcurrentMap<Type, ObjectReader> cache = genericReaders;
+        ObjectReader reader = cache.get(type.getType());
+        if (reader == null) {
+            reader = mapper.reader(type);
+            // generic types can be built at runtime without limit: past the bound, readers are not cached anymore
+            if (cache.size() < MAX_GENERIC_READERS) {
+                cache.putIfAbsent(type.getType(), reader);
+            }
+        }
+        return reader;
+    }
+
+    private ObjectWriter writer(Object o) {
+        return o == null ? mapper.writer() : writers.get(o.getClass());
+    }
+
+    private void resetCaches() {
+        readers = new ClassValue<ObjectReader>() {
+            @Override
+            protected ObjectReader computeValue(Class<?> type) {
+                return mapper.reader(type);
+            }
+        };
+        writers = new ClassValue<ObjectWriter>() {
+            @Override
+            protected ObjectWriter computeValue(Class<?> type) {
+                return mapper.writerWithType(type);
+            }
+        };
+        genericReaders = new ConcurrentHashMap<>();
+    }
+
+    // keeps the optional Afterburner classes out of JacksonJsonMapper, which must load without them
+    private static final class Afterburner {
+        static Module create() {
+            return new com.fasterxml.jackson.module.afterburner.AfterburnerModule();
+        }
     }
 
 }
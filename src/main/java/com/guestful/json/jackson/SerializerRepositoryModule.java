@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.json.jackson;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.Version;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.guestful.json.groovy.JsonTypeSerializer;
+import com.guestful.json.groovy.SerializerRepository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Jackson module serializing the given types with the {@link JsonTypeSerializer} found for them in a
+ * {@link SerializerRepository}, such as a {@link com.guestful.json.groovy.GroovyJsonSerializer}.
+ * <p>
+ * Only the listed types are bridged, so that Jackson keeps its own serializers for maps, collections, numbers...
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class SerializerRepositoryModule extends SimpleModule {
+
+    private final SerializerRepository repository;
+
+    public SerializerRepositoryModule(SerializerRepository repository, Class<?>... types) {
+        super("SerializerRepositoryModule", Version.unknownVersion());
+        this.repository = repository;
+        for (Class<?> type : types) {
+            addType(type);
+        }
+    }
+
+    public <T> SerializerRepositoryModule addType(Class<T> type) {
+        addSerializer(type, new BridgeSerializer<>(type));
+        return this;
+    }
+
+    private final class BridgeSerializer<T> extends StdSerializer<T> {
+
+        BridgeSerializer(Class<T> type) {
+            super(type);
+        }
+
+        @Override
+        public void serialize(T value, JsonGenerator generator, SerializerProvider provider) throws IOException {
+            JsonTypeSerializer<T> serializer = repository.findSerializer(value.getClass());
+            if (serializer == null) {
+                throw new JsonMappingException("No serializer registered for " + value.getClass().getName());
+            }
+            boolean ignoreMapNullValues = !provider.isEnabled(SerializationFeature.WRITE_NULL_MAP_VALUES);
+            try {
+                serializer.write(value, new GeneratorJsonWriter(repository, ignoreMapNullValues, generator, provider));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.json
+
+import com.guestful.json.groovy.GroovyJsonMapper
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+
+import java.util.function.LongSupplier
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@RunWith(JUnit4)
+class AdaptiveJsonMapperTest {
+
+    // engines advance this clock by their cost instead of being timed
+    long now
+    List<String> calls = []
+    boolean fastBroken
+
+    JsonMapper slow = new GroovyJsonMapper() {
+        @Override
+        String toJson(Object o) {
+            now += 1000
+            return super.toJson(o)
+        }
+    }
+
+    JsonMapper broken = new GroovyJsonMapper() {
+        @Override
+        String toJson(Object o) {
+            return '{}'
+        }
+    }
+
+    JsonMapper fast = new GroovyJsonMapper() {
+        @Override
+        String toJson(Object o) {
+            now += 10
+            calls << 'toJson'
+            return fastBroken ? '{}' : super.toJson(o)
+        }
+
+        @Override
+        JsonBatch toJsonBatch(Collection<?> objects) {
+            calls << 'toJsonBatch'
+            return super.toJsonBatch(objects)
+        }
+
+        @Override
+        JsonByteSource toJsonSource(Object o) {
+            calls << 'toJsonSource'
+            return super.toJsonSource(o)
+        }
+    }
+
+    AdaptiveJsonMapper adaptive = withTestClock(new AdaptiveJsonMapper(slow, broken, fast)
+        .setSampleInterval(2)
+        .setSamplesToDecide(5)
+        .setVerifyInterval(4))
+
+    @Test
+    void testSelection() {
+        def item = new AdaptiveItem(name: 'Guestful', tags: ['a', 'b'], count: 3)
+        String json = '{"name":"Guestful","tags":["a","b"],"count":3}'
+        // sampled calls 0, 2, 4, 6 and 8 decide
+        9.times {
+            assert adaptive.getSelectedMapper(AdaptiveItem) == null
+            assert adaptive.toJson(item) == json
+        }
+        assert adaptive.getSelectedMapper(AdaptiveItem).is(fast)
+        assert adaptive.fromJson('{"a":1}', Map) == [a: 1]
+
+        calls.clear()
+        // call 9 to 11 go to the selected engine, call 12 is verified
+        assert adaptive.toJsonBatch([item, item]).asList() == [json, json]
+        def out = new StringWriter()
+        adaptive.toJson(item, out)
+        assert out.toString() == json
+        assert adaptive.toJsonSource(item) != null
+        assert calls == ['toJsonBatch', 'toJsonSource']
+        assert adaptive.toJson(item) == json
+        assert calls == ['toJsonBatch', 'toJsonSource', 'toJson']
+
+        adaptive.reset()
+        assert adaptive.getSelectedMapper(AdaptiveItem) == null
+    }
+
+    @Test
+    void testVerification() {
+        def item = new AdaptiveItem(name: 'Guestful', tags: [], count: 1)
+        String json = adaptive.toJson(item)
+        8.times { adaptive.toJson(item) }
+        assert adaptive.getSelectedMapper(AdaptiveItem).is(fast)
+        fastBroken = true
+        // calls 9 to 11 trust the selected engine, call 12 checks it against the reference and falls back
+        3.times { assert adaptive.toJson(item) == '{}' }
+        assert adaptive.toJson(item) == json
+        assert adaptive.getSelectedMapper(AdaptiveItem).is(slow)
+        assert adaptive.toJson(item) == json
+    }
+
+    @Test
+    void testContainersUseReference() {
+        def map = [name: 'Guestful', tags: ['a', 'b'], count: 3]
+        20.times {
+            assert adaptive.toJson(map) == '{"name":"Guestful","tags":["a","b"],"count":3}'
+            assert adaptive.toJson([1, 2]) == '[1,2]'
+            assert adaptive.toJson([1, 2] as Integer[]) == '[1,2]'
+        }
+        assert adaptive.toJsonBatch([map, map]).size() == 2
+        assert calls.empty
+        assert adaptive.getSelectedMapper(LinkedHashMap) == null
+    }
+
+
+    AdaptiveJsonMapper withTestClock(AdaptiveJsonMapper mapper) {
+        mapper.clock = { now } as LongSupplier
+        return mapper
+    }
+
+}
+
+class AdaptiveItem {
+    String name
+    List<String> tags
+    int count
+}
@@ -0,0 +1,159 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.json
+
+import com.guestful.json.groovy.GroovyJsonMapper
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+
+import java.nio.ByteBuffer
+import java.util.stream.Collectors
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@RunWith(JUnit4)
+class InstrumentedJsonMapperTest {
+
+    List<String> events = []
+    List<String> calls = []
+
+    JsonMapperListener listener = new JsonMapperListener() {
+        @Override
+        void onWrite(Class<?> type, long length, long nanos) {
+            events << "write ${type?.simpleName} $length".toString()
+        }
+
+        @Override
+        void onRead(Class<?> type, long nanos) {
+            events << "read ${type.simpleName}".toString()
+        }
+
+        @Override
+        void onError(Class<?> type, Throwable error) {
+            events << "error ${type?.simpleName}".toString()
+        }
+    }
+
+    GroovyJsonMapper delegate = new GroovyJsonMapper() {
+        @Override
+        def <T> T convertValue(Object value, Class<T> type) {
+            calls << 'convertValue'
+            return super.convertValue(value, type)
+        }
+    }
+
+    JsonMapper mapper = new InstrumentedJsonMapper(delegate, listener)
+
+    @Test
+    void testProjectionAndConversion() {
+        assert mapper.fromJson('{"a":1,"b":2}', Map, JsonProjection.parse('a')) == [a: 1]
+        assert mapper.fromJson(new StringReader('{"a":1,"b":2}'), Map, JsonProjection.parse('b')) == [b: 2]
+        assert mapper.convertValue([a: 1], Map) == [a: 1]
+        // projected reads are converted by the delegate itself
+        assert calls == ['convertValue', 'convertValue', 'convertValue']
+        assert events == ['read Map', 'read Map', 'read Map']
+    }
+
+    @Test
+    void testJsonSource() {
+        def source = mapper.toJsonSource([name: 'caf\u00e9'])
+        def buffer = ByteBuffer.allocate(4)
+        def out = new ByteArrayOutputStream()
+        boolean done
+        while (true) {
+            done = source.fill(buffer)
+            buffer.flip()
+            out.write(buffer.array(), 0, buffer.limit())
+            buffer.clear()
+            if (done) break
+            assert events.empty
+        }
+        assert out.toString('UTF-8') == '{"name":"caf\u00e9"}'
+        assert source.fill(buffer)
+        assert events == ['write LinkedHashMap 16']
+    }
+
+    @Test
+    void testJsonSink() {
+        def sink = mapper.newJsonSink(Map)
+        assert !sink.feed(ByteBuffer.wrap('{"a":'.getBytes('UTF-8')))
+        assert sink.feed(ByteBuffer.wrap('[1,2]}'.getBytes('UTF-8')))
+        assert events.empty
+        assert sink.finish() == [a: [1, 2]]
+        assert events == ['read Map']
+
+        sink = mapper.newJsonSink(Map)
+        sink.feed(ByteBuffer.wrap('{"a":'.getBytes('UTF-8')))
+        try {
+            sink.finish()
+            assert false
+        } catch (JsonMapperException ignored) {
+        }
+        assert events == ['read Map', 'error Map']
+    }
+
+    @Test
+    void testJsonBatch() {
+        assert mapper.toJsonBatch([[a: 1], null, [b: 2]]).asList() == ['{"a":1}', 'null', '{"b":2}']
+        assert mapper.toJsonBatch([[a: 1], 'x']).size() == 2
+        assert events == ['write LinkedHashMap 18', 'write null 10']
+    }
+
+    @Test
+    void testJsonLines() {
+        def records = mapper.fromJsonLines(new StringReader('{"a":1}\n\n{"a":2}\n'), Map)
+        assert events.empty
+        assert records.collect(Collectors.toList()) == [[a: 1], [a: 2]]
+        assert events == ['read Map', 'read Map']
+
+        events.clear()
+        try {
+            mapper.fromJsonLines(['{"a":1}', '{"a":'].stream(), Map).collect(Collectors.toList())
+            assert false
+        } catch (JsonMapperException ignored) {
+        }
+        assert events == ['read Map', 'error Map']
+
+        events.clear()
+        try {
+            mapper.fromJsonLines(['{"a":1}'].stream(), Map).forEach { throw new IllegalStateException() }
+            assert false
+        } catch (IllegalStateException ignored) {
+        }
+        assert events == ['read Map']
+
+        events.clear()
+        def out = new StringWriter()
+        mapper.toJsonLines([[a: 1], [a: 2]].stream(), out)
+        assert out.toString() == '{"a":1}\n{"a":2}\n'
+        assert events == ['write null 16']
+    }
+
+    @Test
+    void testFiles() {
+        File file = File.createTempFile('instrumented', '.json')
+        try {
+            mapper.toJson([a: 1], file)
+            assert mapper.fromJson(file, Map) == [a: 1]
+        } finally {
+            file.delete()
+        }
+        assert events == ['write LinkedHashMap 7', 'read Map']
+    }
+
+}
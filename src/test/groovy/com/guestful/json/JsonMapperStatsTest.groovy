@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.json
+
+import com.guestful.json.groovy.GroovyJsonMapper
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@RunWith(JUnit4)
+class JsonMapperStatsTest {
+
+    JsonMapperStats stats = new JsonMapperStats()
+    JsonMapper mapper = new InstrumentedJsonMapper(new GroovyJsonMapper(), stats)
+
+    @Test
+    void testRecordedCounts() {
+        assert mapper.toJson([a: 1]) == '{"a":1}'
+        def writer = new StringWriter()
+        mapper.toJson([1, 2], writer)
+        assert mapper.fromJson('{"a":1}', Map) == [a: 1]
+        assert stats.writeCount == 2
+        assert stats.readCount == 1
+        assert stats.writtenLength == '{"a":1}'.length() + '[1,2]'.length()
+        assert stats.errorCount == 0
+        assert stats.typeStats.length == 3
+        assert stats.typeStats.find { it.startsWith('java.util.LinkedHashMap: ') }.contains('errors=0')
+        assert stats.typeStats.find { it.startsWith('java.util.Map: ') }.contains('reads={count=1')
+
+        stats.reset()
+        assert stats.writeCount == 0
+        assert stats.typeStats.length == 0
+        mapper.toJson([a: 1])
+        assert stats.typeStats.length == 1
+    }
+
+    @Test
+    void testErrors() {
+        try {
+            mapper.fromJson('{"a":', Map)
+            assert false
+        } catch (RuntimeException ignored) {
+        }
+        try {
+            mapper.toJson(Double.NaN)
+            assert false
+        } catch (RuntimeException ignored) {
+        }
+        assert stats.errorCount == 2
+        assert stats.readCount == 0
+        assert stats.writeCount == 0
+        assert stats.typeStats.find { it.startsWith('java.lang.Double: ') }.endsWith('errors=1')
+    }
+
+    @Test
+    void testHistogramBuckets() {
+        (0..<8).each { assert LatencyHistogram.indexOf(it) == it }
+        assert LatencyHistogram.indexOf(8) == 8
+        assert LatencyHistogram.indexOf(15) == 15
+        assert LatencyHistogram.indexOf(16) == 16
+        assert LatencyHistogram.indexOf(17) == 16
+        assert LatencyHistogram.indexOf(18) == 17
+        [1L, 7L, 100L, 1000L, 123456789L, Long.MAX_VALUE].each { long v ->
+            int i = LatencyHistogram.indexOf(v)
+            assert LatencyHistogram.lowestValueOf(i) <= v
+            assert i + 1 == (64 - 3) * 8 || v < LatencyHistogram.lowestValueOf(i + 1)
+        }
+
+        def histogram = new LatencyHistogram()
+        assert histogram.getValueAtPercentile(50) == 0
+        (1..100).each { histogram.record(it * 1000) }
+        histogram.record(-5)
+        assert histogram.count == 101
+        long median = histogram.getValueAtPercentile(50)
+        assert median >= 50000 && median < 50000 * 1.125 + 4096
+        assert histogram.getValueAtPercentile(100) >= 100000
+        assert histogram.max == histogram.getValueAtPercentile(100)
+        histogram.reset()
+        assert histogram.count == 0
+        assert histogram.max == 0
+    }
+
+}
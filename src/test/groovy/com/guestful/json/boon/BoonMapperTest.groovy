@@ -0,0 +1,72 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.json.boon
+
+import com.guestful.json.groovy.GroovyJsonSerializer
+import com.guestful.json.groovy.JsonTypeSerializer
+import com.guestful.json.groovy.JsonWriter
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@RunWith(JUnit4)
+class BoonMapperTest {
+
+    BoonMapper mapper = new BoonMapper()
+
+    @Test
+    void testConcurrentUse() {
+        int threads = Runtime.runtime.availableProcessors() * 4
+        def pool = Executors.newFixedThreadPool(threads)
+        def results = (0..<2000).collect { i ->
+            pool.submit({
+                String json = mapper.toJson([i: i, s: 'x' * (i % 100), l: (0..(i % 10)).toList()])
+                mapper.fromJson(json, Map)
+            } as Callable)
+        }*.get()
+        pool.shutdown()
+        assert pool.awaitTermination(30, TimeUnit.SECONDS)
+        results.eachWithIndex { Map m, int i ->
+            assert m == [i: i, s: 'x' * (i % 100), l: (0..(i % 10)).toList()]
+        }
+    }
+
+    @Test
+    void testSerializerBridge() {
+        GroovyJsonSerializer serializer = new GroovyJsonSerializer()
+            .addCustomSerializer(BoonMoney, { BoonMoney m, JsonWriter w ->
+                w.writeMap([value: "$m.amount $m.currency".toString(), note: null, tags: ['a'] as String[]])
+            } as JsonTypeSerializer)
+        BoonMapper bridged = new BoonMapper(serializer, BoonMoney)
+        def o = [total: new BoonMoney(amount: 1.5, currency: 'EUR'), lines: [new BoonMoney(amount: 2, currency: 'USD')]]
+        // Boon leaves null values out unless its serializer includes nulls
+        assert bridged.toJson(o) == '{"total":{"value":"1.5 EUR","tags":["a"]},"lines":[{"value":"2 USD","tags":["a"]}]}'
+        assert bridged.fromJson(bridged.toJson(o), Map) == [total: [value: '1.5 EUR', tags: ['a']], lines: [[value: '2 USD', tags: ['a']]]]
+    }
+
+}
+
+class BoonMoney {
+    BigDecimal amount
+    String currency
+}
@@ -0,0 +1,287 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.json.groovy
+
+import com.guestful.json.JsonMapperException
+import com.guestful.json.JsonProjection
+import com.guestful.json.ParallelJsonLoader
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+
+import java.nio.ByteBuffer
+import java.time.Instant
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@RunWith(JUnit4)
+class GroovyJsonMapperTest {
+
+    GroovyJsonMapper mapper = new GroovyJsonMapper()
+
+    @Test
+    void testCborRoundTrip() {
+        def o = [
+            int       : 1,
+            negative  : -1000,
+            long      : Long.MIN_VALUE,
+            bigInteger: 12345678901234567890123,
+            negativeBigInteger: -12345678901234567890123,
+            bigDecimal: 3.25,
+            double    : 1.5d,
+            list      : [true, false, null, 'héllo'],
+            array     : [1, 2, 3] as int[],
+            empty     : [:],
+            instant   : Instant.ofEpochSecond(0),
+            raw       : RawJson.of('{"x":[1,2.5]}'),
+            closure   : { a 1 }
+        ]
+        byte[] cbor = mapper.toBinary(o)
+        assert cbor.length < mapper.toJson(o).length()
+        assert mapper.toJson(mapper.fromBinary(cbor, Map)) == mapper.toJson(o)
+    }
+
+    @Test
+    void testCborEncoding() {
+        assert mapper.toBinary(0) == [0x00] as byte[]
+        assert mapper.toBinary(-1) == [0x20] as byte[]
+        assert mapper.toBinary(500) == [0x19, 0x01, 0xf4] as byte[]
+        assert mapper.toBinary('a') == [0x61, 0x61] as byte[]
+        assert mapper.toBinary([1, 2] as Integer[]) == [0x82, 0x01, 0x02] as byte[]
+        assert mapper.toBinary([a: true]) == [0xbf, 0x61, 0x61, 0xf5, 0xff] as byte[]
+        assert mapper.fromBinary([0xa1, 0x61, 0x61, 0xf9, 0x3c, 0x00] as byte[]) == [a: 1.0d]
+    }
+
+    @Test
+    void testCborLimits() {
+        def invalid = { List<Integer> bytes, String message ->
+            try {
+                mapper.fromBinary(bytes as byte[], Object)
+                assert false
+            } catch (JsonMapperException e) {
+                def messages = []
+                for (Throwable t = e; t != null; t = t.cause) messages << t.message
+                assert messages.any { it?.contains(message) }
+            }
+        }
+        // a 2^62 bytes string, and a string which length does not fit a signed long
+        invalid([0x7b, 0x40, 0, 0, 0, 0, 0, 0, 0, 0x61], 'too long')
+        invalid([0x7b, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff, 0xff], 'too large')
+        invalid([0x9b, 0x80, 0, 0, 0, 0, 0, 0, 0], 'too large')
+        // a 1GB string made of a single byte
+        invalid([0x5a, 0x40, 0, 0, 0, 0x61], 'Unexpected end')
+        invalid([0x9a, 0x40, 0, 0, 0, 0x01], 'Unexpected end')
+        invalid([0x81] * 100000 + [0x01], 'nesting deeper than 1000')
+        invalid([0xc2, 0x01], 'Invalid CBOR bignum')
+        assert new CborReader(new ByteArrayInputStream(([0x81] * 999 + [0x01]) as byte[])).read() != null
+        def writer = new CborWriter(new GroovyJsonSerializer(), false).writeObject([a: 1])
+        assert writer.toString() == 'CborWriter[5 bytes]'
+    }
+
+    @Test
+    void testConcurrentParsing() {
+        def pool = Executors.newFixedThreadPool(8)
+        def results = (0..<200).collect { i ->
+            pool.submit({ mapper.fromJson('{"i":' + i + ',"s":"' + ('x' * i) + '"}', Map) } as java.util.concurrent.Callable)
+        }*.get()
+        pool.shutdown()
+        assert pool.awaitTermination(10, TimeUnit.SECONDS)
+        results.eachWithIndex { Map m, int i -> assert m == [i: i, s: 'x' * i] }
+        assert mapper.fromJson(new StringReader('[1,2]'), List) == [1, 2]
+    }
+
+    @Test
+    void testShortReaderAfterLongOne() {
+        assert mapper.fromJson(new StringReader('12345'), Integer) == 12345
+        assert mapper.fromJson(new StringReader('12'), Integer) == 12
+        assert mapper.fromJson(new StringReader('"abcdef"'), String) == 'abcdef'
+        assert mapper.fromJson(new StringReader('7'), Integer) == 7
+        assert mapper.fromJson('[1,2,3,4]', List) == [1, 2, 3, 4]
+        assert mapper.fromJson(new StringReader('[5]'), List) == [5]
+    }
+
+    @Test
+    void testProjectedParsing() {
+        def json = '''{
+            "id": 1,
+            "name": "Paris",
+            "skipped": {"a": [1, {"b": "}]\\"\\u0041"}], "c": null},
+            "districts": [{"number": 1, "streets": ["x", "y"]}, {"number": 12345678901, "streets": []}],
+            "location": {"lat": 48.85, "lng": 2.35, "label": "\\u00e9"}
+        }'''
+        assert mapper.fromJson(json, Map, JsonProjection.parse('name,districts.number,location.label')) == [
+            name     : 'Paris',
+            districts: [[number: 1], [number: 12345678901]],
+            location : [label: 'é']
+        ]
+        assert mapper.fromJson(json, Map, JsonProjection.parse('-skipped,-districts,-location.label')) == [
+            id: 1, name: 'Paris', location: [lat: 48.85, lng: 2.35]
+        ]
+        assert mapper.fromJson(json, Map, JsonProjection.ALL) == mapper.fromJson(json, Map)
+        assert mapper.fromJson('[{"a":1,"b":true},{"a":2}]', List, JsonProjection.parse('a')) == [[a: 1], [a: 2]]
+        try {
+            mapper.fromJson('{"a":1,"b":{"c":2}', Map, JsonProjection.parse('a'))
+            assert false
+        } catch (JsonMapperException ignored) {
+        }
+    }
+
+    @Test
+    void testJsonSource() {
+        def o = [
+            name   : 'héllo 😀',
+            list   : (1..500).collect { [id: it, tags: ['a', 'b'], street: new JsonStreet("s$it", JsonStreetKind.street)] },
+            array  : [1, 'x', null] as Object[],
+            ints   : [1, 2] as int[],
+            empty  : [:],
+            closure: { a 1 }
+        ]
+        ByteBuffer buffer = ByteBuffer.allocate(7)
+        def out = new ByteArrayOutputStream()
+        def source = mapper.toJsonSource(o)
+        int calls = 0
+        boolean done
+        do {
+            done = source.fill(buffer)
+            buffer.flip()
+            out.write(buffer.array(), 0, buffer.limit())
+            buffer.clear()
+            calls++
+        } while (!done)
+        assert calls > 100
+        assert out.toString('UTF-8') == mapper.toJson(o)
+        assert source.fill(buffer) && buffer.position() == 0
+    }
+
+    @Test
+    void testJsonSink() {
+        def o = [name: 'héllo 😀 "\\u', list: [1, -2.5, 12345678901, true, false, null, [], [:]], nested: [a: [b: 'c']]]
+        byte[] bytes = mapper.toJson(o).getBytes('UTF-8')
+        def sink = mapper.newJsonSink(Map)
+        for (int i = 0; i < bytes.length; i += 3) {
+            assert !sink.feed(ByteBuffer.wrap(bytes, i, Math.min(3, bytes.length - i)))
+                || i + 3 >= bytes.length
+        }
+        assert sink.feed(ByteBuffer.wrap(' \n'.bytes))
+        assert sink.finish() == o
+
+        sink = mapper.newJsonSink(Integer)
+        assert !sink.feed(ByteBuffer.wrap('12'.bytes))
+        assert sink.finish() == 12
+
+        sink = mapper.newJsonSink(Map)
+        sink.feed(ByteBuffer.wrap('{"a":[1,'.bytes))
+        try {
+            sink.finish()
+            assert false
+        } catch (JsonMapperException ignored) {
+        }
+    }
+
+    @Test
+    void testVirtualThreads() {
+        // checks that the mapper's shared pools stay correct under many concurrent tasks: on virtual threads from
+        // JDK 21, on a large pool of platform threads before. Carrier thread pinning is not checked here.
+        ExecutorService pool = Executors.metaClass.respondsTo(Executors, 'newVirtualThreadPerTaskExecutor') ?
+            Executors.newVirtualThreadPerTaskExecutor() :
+            Executors.newFixedThreadPool(Runtime.runtime.availableProcessors() * 4)
+        int count = 100_000
+        def results = (0..<count).collect { int i ->
+            pool.submit({
+                def o = [id: i, name: "item $i".toString(), tags: ['a', 'b'], street: new JsonStreet("s$i", JsonStreetKind.street)]
+                mapper.fromJson(mapper.toJson(o), Map).id
+            } as java.util.concurrent.Callable)
+        }
+        pool.shutdown()
+        assert pool.awaitTermination(2, TimeUnit.MINUTES)
+        // get() rethrows the failure of a task
+        results.eachWithIndex { future, int i -> assert future.get() == i }
+    }
+
+    @Test
+    void testJsonLines() {
+        def records = (0..<1000).collect { [id: it, name: "n$it".toString()] }
+        def out = new StringWriter()
+        mapper.toJsonLines(records.stream(), out)
+        assert out.toString().readLines().size() == 1000
+        assert mapper.fromJsonLines(new StringReader(out.toString() + '\n\n'), Map).collect(java.util.stream.Collectors.toList()) == records
+        assert mapper.fromJsonLines(new StringReader(out.toString()), Map).parallel().mapToInt { it.id }.sum() == (0..<1000).sum()
+
+        File file = File.createTempFile('records', '.ndjson')
+        try {
+            file.withOutputStream { mapper.toJsonLines(records.stream(), it, java.nio.charset.StandardCharsets.UTF_8) }
+            def stream = mapper.fromJsonLines(file.toPath(), Map)
+            try {
+                assert stream.count() == 1000
+            } finally {
+                stream.close()
+            }
+        } finally {
+            file.delete()
+        }
+    }
+
+    @Test
+    void testParallelLoading() {
+        def records = (0..<2000).collect { [id: it, text: "é,]}\"\\ $it".toString(), nested: [[a: it], []]] }
+        File file = File.createTempFile('records', '.json')
+        try {
+            file.setText(' ' + mapper.toJson(records) + '\n', 'UTF-8')
+            assert mapper.fromJsonParallel(file.toPath(), Map) == records
+            def loader = new ParallelJsonLoader(mapper).setChunkSize(1000)
+            assert loader.load(file.toPath(), Map) == records
+
+            file.withOutputStream { mapper.toJsonLines(records.stream(), it, java.nio.charset.StandardCharsets.UTF_8) }
+            assert loader.load(file.toPath(), Map) == records
+            def pool = new java.util.concurrent.ForkJoinPool(1)
+            def ordered = []
+            new ParallelJsonLoader(mapper).setChunkSize(100).setPool(pool).forEach(file.toPath(), Map) { ordered << it.id }
+            pool.shutdown()
+            assert ordered == (0..<2000)
+            def ids = Collections.synchronizedList([])
+            loader.setOrdered(false).forEach(file.toPath(), Map) { ids << it.id }
+            assert ids.sort() == (0..<2000)
+
+            file.text = '[ ]'
+            assert loader.load(file.toPath(), Map) == []
+            ['[1,,2]', '[1,]', '[,1]', '[1, ]'].each { json ->
+                file.text = json
+                try {
+                    new ParallelJsonLoader(mapper).setChunkSize(1).load(file.toPath(), Integer)
+                    assert false
+                } catch (JsonMapperException e) {
+                    assert e.message.contains('Empty element')
+                }
+            }
+
+            file.text = '[1,2]\n[3,4]\n'
+            try {
+                loader.load(file.toPath(), List)
+                assert false
+            } catch (JsonMapperException e) {
+                assert e.message.contains('Format.LINES')
+            }
+            assert loader.setFormat(ParallelJsonLoader.Format.LINES).load(file.toPath(), List) == [[1, 2], [3, 4]]
+        } finally {
+            file.delete()
+        }
+    }
+
+}
@@ -15,12 +15,24 @@
  */
 package com.guestful.json.groovy
 
+import com.guestful.json.JsonProjection
 import groovy.transform.Canonical
 import org.codehaus.groovy.runtime.ScriptBytecodeAdapter
 import org.junit.Test
 import org.junit.runner.RunWith
 import org.junit.runners.JUnit4
 
+import java.nio.channels.FileChannel
+import java.nio.file.StandardOpenOption
+import java.time.DayOfWeek
+import java.time.Instant
+import java.time.Month
+import java.time.OffsetDateTime
+import java.time.ZoneOffset
+import java.time.ZonedDateTime
+import java.util.concurrent.TimeUnit
+import java.util.function.Function
+
 import static org.junit.Assert.assertTrue
 
 /**
@@ -180,6 +192,15 @@ class GroovyJsonSerializerTest {
 
     @Test
     void testClosure() {
+        checkClosures(serializer)
+        checkClosures(new GroovyJsonSerializer().setStreamingClosures(true))
+
+        // like JsonBuilder, a repeated field keeps its last value, unless fields are written as they are called
+        assert serializer.toJson({ a 1; b 2; a 3 }) == '{"a":3,"b":2}'
+        assert shouldFail { new GroovyJsonSerializer().setStreamingClosures(true).toJson({ a 1; b 2; a 3 }) }.message.contains("'a' called twice")
+    }
+
+    static void checkClosures(GroovyJsonSerializer serializer) {
         assert serializer.toJson({
             a 1
             b {
@@ -191,6 +212,117 @@ class GroovyJsonSerializerTest {
                 }
             }
         }) == '{"a":1,"b":{"c":2,"d":{"e":[3,{"f":4}]}}}'
+
+        def cities = ['Paris', 'Lyon']
+        Closure shape = {
+            count cities.size()
+            items(cities) { String city ->
+                name city
+                upper city.toUpperCase()
+            }
+            none null
+        }
+        assert serializer.toJson(shape) == '{"count":2,"items":[{"name":"Paris","upper":"PARIS"},{"name":"Lyon","upper":"LYON"}],"none":null}'
+        assert serializer.toJson(shape, JsonProjection.parse('items.name')) == '{"items":[{"name":"Paris"},{"name":"Lyon"}]}'
+        assert new GroovyJsonSerializer().setStreamingClosures(serializer.streamingClosures).setIgnoreMapNullValues(true).toJson(shape) == '{"count":2,"items":[{"name":"Paris","upper":"PARIS"},{"name":"Lyon","upper":"LYON"}]}'
+        assert serializer.toCbor(shape) == serializer.toCbor([count: 2, items: [[name: 'Paris', upper: 'PARIS'], [name: 'Lyon', upper: 'LYON']], none: null])
+
+        assert serializer.toJson(cities.collect { city -> { -> name city } }) == '[{"name":"Paris"},{"name":"Lyon"}]'
+    }
+
+    @Test
+    void testBeanProperties() {
+        assert serializer.toJson(new PlanBean(name: 'a')) == '{"name":"a"}'
+        def bean = new PlanBean(name: 'b')
+        bean.metaClass.getUpper = { -> delegate.name.toUpperCase() }
+        assert serializer.toJson(bean) == '{"name":"b","upper":"B"}'
+        assert serializer.toJson(new PlanBean(name: 'c')) == '{"name":"c"}'
+
+        // the class ExpandoMetaClass gets a property after the plan was used, then another one
+        try {
+            assert serializer.toJson(new ExpandoPlanBean(name: 'd')) == '{"name":"d"}'
+            ExpandoPlanBean.metaClass.getUpper = { -> delegate.name.toUpperCase() }
+            assert serializer.toJson(new ExpandoPlanBean(name: 'e')) == '{"name":"e","upper":"E"}'
+            ExpandoPlanBean.metaClass.getLength = { -> delegate.name.length() }
+            assert serializer.toJson(new ExpandoPlanBean(name: 'f')) == '{"name":"f","upper":"F","length":1}'
+        } finally {
+            GroovySystem.metaClassRegistry.removeMetaClass(ExpandoPlanBean)
+        }
+        assert serializer.toJson(new ExpandoPlanBean(name: 'g')) == '{"name":"g"}'
+    }
+
+    @Test
+    void testTypeDescriptor() {
+        def serializer = new GroovyJsonSerializer().addTypeDescriptor(JsonTypeDescriptor.of(JsonStreet)
+            .requiredField('name', String, { JsonStreet s -> s.streetName } as Function)
+            .field('kind', JsonStreetKind, { JsonStreet s -> s.kind } as Function))
+        def streets = [new JsonStreet('Saint-Honor\u00e9', JsonStreetKind.street), new JsonStreet('de l\'Opera', null)]
+        assert serializer.toJson(streets) == '[{"name":"Saint-Honor\u00e9","kind":"street"},{"name":"de l\'Opera","kind":null}]'
+        assert serializer.toJson(streets, JsonProjection.parse('kind')) == '[{"kind":"street"},{"kind":null}]'
+        assert serializer.setIgnoreMapNullValues(true).toJson(streets[1]) == '{"name":"de l\'Opera"}'
+        assert serializer.toCbor(streets[0]) == serializer.toCbor([name: 'Saint-Honor\u00e9', kind: 'street'])
+
+        int reads = 0
+        def loose = new GroovyJsonSerializer().addTypeDescriptor(JsonTypeDescriptor.of(JsonStreet)
+            .requiredField('name', String, { JsonStreet s -> reads++; s.streetName ? "$s.streetName!" : null } as Function)
+            .field('kind', JsonStreetKind, { JsonStreet s -> s.kind } as Function))
+        // a GString in a String field is written as any other object
+        assert loose.toJson(streets[0]) == '{"name":"Saint-Honor\u00e9!","kind":"street"}'
+        assert reads == 1
+        assert loose.toJson(streets[0], JsonProjection.parse('kind')) == '{"kind":"street"}'
+        assert reads == 1
+        assert shouldFail { loose.toJson(new JsonStreet(null, JsonStreetKind.avenue)) }.message.contains("Required field 'name' of com.guestful.json.groovy.JsonStreet is null")
+    }
+
+    @Test
+    void testOffHeapOutput() {
+        def rows = (0..<20000).collect { [id: it, label: 'row \ud83d\ude00 ' + it, values: [1.5, true, null]] }
+        def output = serializer.toJson(rows, new OffHeapJsonOutput(4096))
+        String expected = serializer.toJson(rows)
+        assert output.getCharCount() == expected.length()
+        assert output.size() == expected.getBytes('UTF-8').length
+        File file = File.createTempFile('json', '.json')
+        try {
+            FileChannel.open(file.toPath(), StandardOpenOption.WRITE).withCloseable { output.writeTo(it) }
+            assert file.getText('UTF-8') == expected
+        } finally {
+            file.delete()
+        }
+        def writer = new JsonWriter(serializer, false, new OffHeapJsonOutput()).writeObject([a: 1])
+        assert writer.toString() == 'JsonWriter[OffHeapJsonOutput, 7 chars]'
+
+        // segments are rewound and rewritten by the next document instead of being allocated again
+        int segments = output.segments.size()
+        output.clear()
+        assert output.size() == 0 && output.toByteBuffers().length == 0
+        serializer.toJson(rows.take(10), output)
+        assert output.segments.size() == segments
+        assert output.toByteBuffers().length == 1
+        assert output.finish().size() == serializer.toJson(rows.take(10)).getBytes('UTF-8').length
+        output.clear()
+        serializer.toJson(rows, output)
+        assert output.segments.size() == segments
+        assert output.finish().size() == expected.getBytes('UTF-8').length
+    }
+
+    @Test
+    void testSegmentedOutput() {
+        def rows = (0..<20000).collect { [id: it, label: 'row \u00e9 ' + it] }
+        String expected = serializer.toJson(rows)
+        def output = serializer.toJson(rows, new SegmentedJsonOutput(1000))
+        assert output.length() == expected.length()
+        assert output.toString() == expected
+        assert output.charAt(expected.length() - 1) == ']' as char
+        def writer = new StringWriter()
+        output.writeTo(writer)
+        assert writer.toString() == expected
+        def bytes = new ByteArrayOutputStream()
+        output.writeTo(bytes, java.nio.charset.StandardCharsets.UTF_8)
+        assert bytes.toString('UTF-8') == expected
+        assert serializer.toJson([a: 1], new SegmentedJsonOutput()).toString() == '{"a":1}'
+        // the output holds what was flushed, the writer the rest
+        def jsonWriter = new JsonWriter(serializer, false, new SegmentedJsonOutput()).writeObject(rows).writeRaw(',')
+        assert jsonWriter.toString() == expected + ','
     }
 
     @Test
@@ -199,6 +331,128 @@ class GroovyJsonSerializerTest {
         assert serializer.toJson(Collections.enumeration([1, 2, 3])) == '[1,2,3]'
     }
 
+    @Test
+    void testDates() {
+        assert serializer.toJson(Instant.ofEpochSecond(1401366896, 123456789)) == '"2014-05-29T12:34:56+0000"'
+        assert serializer.toJson(Instant.ofEpochSecond(-1)) == '"1969-12-31T23:59:59+0000"'
+        assert serializer.toJson(Instant.parse('+10000-01-01T00:00:00Z')) == '"+10000-01-01T00:00:00+0000"'
+        assert serializer.toJson(new Date(-1)) == '"1969-12-31T23:59:59+0000"'
+        assert serializer.toJson(new Date(951782400000)) == '"2000-02-29T00:00:00+0000"'
+        assert serializer.toJson([Instant.ofEpochSecond(5), Instant.ofEpochSecond(5), Instant.ofEpochSecond(6)]) ==
+            '["1970-01-01T00:00:05+0000","1970-01-01T00:00:05+0000","1970-01-01T00:00:06+0000"]'
+
+        assert serializer.toJson(OffsetDateTime.parse('2014-05-29T12:34:56.789Z')) == '"2014-05-29T12:34:56.789Z"'
+        assert serializer.toJson(OffsetDateTime.parse('2014-05-29T12:34:56-04:00')) == '"2014-05-29T12:34:56.000-04:00"'
+        assert serializer.toJson(OffsetDateTime.of(2014, 5, 29, 12, 34, 56, 0, ZoneOffset.ofHoursMinutesSeconds(1, 2, 3))) == '"2014-05-29T12:34:56.000+01:02:03"'
+        assert serializer.toJson(OffsetDateTime.parse('-0001-01-01T00:00:00Z')) == '"-0001-01-01T00:00:00.000Z"'
+        assert serializer.toJson(ZonedDateTime.parse('2014-05-29T12:34:56.007+02:00[Europe/Paris]')) == '"2014-05-29T12:34:56.007+02:00"'
+    }
+
+    @Test
+    void testEnums() {
+        assert serializer.toJson(JsonStreetKind.avenue) == '"avenue"'
+        assert serializer.toJson([TimeUnit.SECONDS, TimeUnit.DAYS]) == '["SECONDS","DAYS"]'
+        assert serializer.toJson([DayOfWeek.MONDAY, DayOfWeek.SUNDAY]) == '["MON","SUN"]'
+        assert serializer.toJson([Month.JANUARY, Month.DECEMBER]) == '["JAN","DEC"]'
+        assert serializer.toJson([ZoneOffset.UTC, ZoneOffset.ofHours(-4), ZoneOffset.ofHours(-4)]) == '["Z","-04:00","-04:00"]'
+    }
+
+    @Test
+    void testRawJson() {
+        assert serializer.toJson([a: RawJson.of('{"b":[1,2]}'), c: RawJson.of('"d"' as char[]), e: RawJson.ofUtf8('"\u00e9"'.getBytes('UTF-8'))]) == '{"a":{"b":[1,2]},"c":"d","e":"\u00e9"}'
+        assert serializer.toJson(RawJson.of('{"a":1}').withValidation()) == '{"a":1}'
+        shouldFail { serializer.toJson(RawJson.of('{"a":').withValidation()) }
+        ['{"a":1} junk', '[1,2]]', '{"a":1}}', '1 2', 'truex', '{"a":1,}'].each { json ->
+            shouldFail { serializer.toJson(RawJson.of(json).withValidation()) }
+        }
+        assert serializer.toJson(RawJson.of(' [1,{"a":"}"}] \n').withValidation()) == ' [1,{"a":"}"}] \n'
+        def invalid = RawJson.of('[1,2]]').withValidation()
+        assert shouldFail { invalid.validate() }.is(shouldFail { invalid.validate() })
+    }
+
+    @Test
+    void testCachedSerializer() {
+        SerializationCache cache = new SerializationCache(2)
+        serializer.addCachedSerializer(JsonStreet, cache)
+        def street = new JsonStreet("Saint-Honore", JsonStreetKind.street)
+        def json = serializer.toJson(street)
+        assert serializer.toJson([street, street]) == "[$json,$json]"
+        assert cache.missCount == 1
+        assert cache.hitCount == 2
+
+        serializer.toJson([new JsonStreet("a", JsonStreetKind.avenue), new JsonStreet("b", JsonStreetKind.avenue)])
+        assert cache.size() == 2
+        assert cache.evictionCount == 1
+
+        SerializationCache versioned = new SerializationCache(10)
+        serializer.addCachedSerializer(JsonDistrict, versioned, { JsonDistrict d -> d.number })
+        json = serializer.toJson(new JsonDistrict(1, [] as JsonStreet[]))
+        assert serializer.toJson(new JsonDistrict(1, [street] as JsonStreet[])) == json
+        assert versioned.missCount == 1
+        assert versioned.hitCount == 1
+    }
+
+    @Test
+    void testCachedSerializerToCbor() {
+        SerializationCache cache = new SerializationCache(10)
+        serializer.addCachedSerializer(JsonLocation, cache)
+        def location = new JsonLocation("Louvre", 48.8606d)
+        def json = serializer.toJson(location)
+        assert serializer.toCbor([location, location]) == serializer.toCbor([[name: 'Louvre', latitude: 48.8606d], [name: 'Louvre', latitude: 48.8606d]])
+        assert cache.missCount == 1
+        assert cache.hitCount == 0
+        assert serializer.toJson(location) == json
+        assert cache.hitCount == 1
+    }
+
+    @Test
+    void testListener() {
+        def events = []
+        serializer.listener = [
+            onSerializerMiss : { Class<?> type -> events << "miss:$type.simpleName" },
+            onBeanFallback   : { Class<?> type -> events << "bean:$type.simpleName" },
+            onDocumentWritten: { Class<?> type, int length, int growths -> events << "doc:$type.simpleName:$length" }
+        ] as JsonWriterListener
+        def json = serializer.toJson([new JsonStreet("a", JsonStreetKind.street)] as JsonStreet[])
+        assert events == ['miss:JsonStreet[]', 'miss:JsonStreet', 'bean:JsonStreet', "doc:JsonStreet[]:${json.length()}"]
+    }
+
+    @Test
+    void testProjection() {
+        def city = new JsonCity("Paris", [
+            new JsonDistrict(1, [new JsonStreet("Saint-Honore", JsonStreetKind.street)] as JsonStreet[]),
+            new JsonDistrict(2, [] as JsonStreet[])
+        ])
+        assert serializer.toJson(city, JsonProjection.parse('name')) == '{"name":"Paris"}'
+        assert serializer.toJson(city, JsonProjection.parse('districts.number')) == '{"districts":[{"number":1},{"number":2}]}'
+        assert serializer.toJson(city, JsonProjection.parse('districts.streets.kind,-districts.streets.kind')) == '{"districts":[{"streets":[{}]},{"streets":[]}]}'
+        assert serializer.toJson(city, JsonProjection.parse('-districts')) == '{"name":"Paris"}'
+        assert serializer.toJson(city, JsonProjection.parse('districts.*,-districts.streets')) == '{"districts":[{"number":1},{"number":2}]}'
+        assert serializer.toJson([a: [b: 1, c: 2], d: 3], JsonProjection.parse('a.c,d')) == '{"a":{"c":2},"d":3}'
+        assert serializer.toJson([a: [b: 1, c: 2], d: 3], JsonProjection.parse('-a.b')) == '{"a":{"c":2},"d":3}'
+        assert serializer.toJson([a: 1], JsonProjection.ALL) == '{"a":1}'
+
+        SerializationCache cache = new SerializationCache(10)
+        serializer.addCachedSerializer(JsonStreet, cache)
+        assert serializer.toJson(new JsonStreet("a", JsonStreetKind.street), JsonProjection.parse('kind')) == '{"kind":"street"}'
+        assert cache.size() == 0
+        shouldFail { JsonProjection.parse('a..b') }
+    }
+
+    @Test
+    void testBatch() {
+        def street = new JsonStreet("a", JsonStreetKind.street)
+        def objects = [[a: 1], street, street, null, 'x', [1, 2] as int[], [street, null] as JsonStreet[]]
+        def batch = serializer.toJsonBatch(objects)
+        assert batch.size() == objects.size()
+        assert batch.asList() == objects.collect { serializer.toJson(it) }
+        assert new String(batch.chars, batch.getStart(4), batch.getEnd(4) - batch.getStart(4)) == '"x"'
+        def lines = new StringWriter()
+        batch.writeLines(lines)
+        assert lines.toString() == objects.collect { serializer.toJson(it) + '\n' }.join('')
+        assert serializer.toJsonBatch([]).size() == 0
+    }
+
     @Test
     void testSerializePogos() {
         def city = new JsonCity("Paris", [
@@ -265,6 +519,24 @@ class JsonStreet {
     JsonStreetKind kind
 }
 
+@Canonical
+class JsonLocation {
+    String name
+    double latitude
+}
+
 enum JsonStreetKind {
     street, boulevard, avenue
-}
\ No newline at end of file
+}
+
+class PlanBean {
+    String name
+
+    String getBroken() {
+        throw new IllegalStateException()
+    }
+}
+
+class ExpandoPlanBean {
+    String name
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.json.jackson
+
+import com.fasterxml.jackson.core.JsonFactory
+import com.fasterxml.jackson.core.type.TypeReference
+import com.guestful.json.groovy.GroovyJsonSerializer
+import com.guestful.json.groovy.JsonTypeSerializer
+import com.guestful.json.groovy.JsonWriter
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.junit.runners.JUnit4
+
+import java.nio.charset.StandardCharsets
+import java.time.Instant
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@RunWith(JUnit4)
+class JacksonJsonMapperTest {
+
+    JacksonJsonMapper mapper = new JacksonJsonMapper()
+
+    @Test
+    void testGenericTypes() {
+        List<JacksonMoney> list = mapper.fromJson('[{"amount":1.5,"currency":"EUR"}]', new TypeReference<List<JacksonMoney>>() {})
+        assert list[0] instanceof JacksonMoney
+        assert list[0].amount == 1.5
+        def type = new TypeReference<Map<String, JacksonMoney>>() {}
+        Map<String, JacksonMoney> map = mapper.fromJson(new StringReader('{"a":{"amount":2}}'), type)
+        assert map.a instanceof JacksonMoney && map.a.amount == 2
+        map = mapper.fromJson(new ByteArrayInputStream('{"b":{"currency":"\u20ac"}}'.getBytes('UTF-8')), type)
+        assert map.b.currency == '\u20ac'
+    }
+
+    @Test
+    void testBytePaths() {
+        def o = [name: 'h\u00e9llo \ud83d\ude00', amount: 1.5]
+        def json = mapper.toJson(o)
+        assert mapper.fromJson(json, Map) == o
+
+        def out = new ByteArrayOutputStream()
+        mapper.toJson([name: 'h\u00e9llo'], out, StandardCharsets.UTF_8)
+        assert out.toString('UTF-8') == '{"name":"h\u00e9llo"}'
+        // the UTF-8 generator may escape surrogate pairs, which reads back the same
+        out = new ByteArrayOutputStream()
+        mapper.toJson(o, out, StandardCharsets.UTF_8)
+        assert mapper.fromJson(new ByteArrayInputStream(out.toByteArray()), StandardCharsets.UTF_8, Map) == o
+
+        out = new ByteArrayOutputStream()
+        mapper.toJson([name: 'h\u00e9llo'], out, StandardCharsets.ISO_8859_1)
+        assert out.toByteArray().length == '{"name":"h\u00e9llo"}'.length()
+        assert mapper.fromJson(new ByteArrayInputStream(out.toByteArray()), StandardCharsets.ISO_8859_1, Map) == [name: 'h\u00e9llo']
+
+        File file = File.createTempFile('jackson', '.json')
+        try {
+            mapper.toJson(o, file)
+            assert mapper.fromJson(file, Map) == o
+            assert mapper.fromJson(file.getText('UTF-8'), Map) == mapper.fromJson(json, Map)
+        } finally {
+            file.delete()
+        }
+    }
+
+    @Test
+    void testAfterburner() {
+        def money = new JacksonMoney(amount: 1.5, currency: 'EUR')
+        String json = mapper.toJson(money)
+        mapper.enableAfterburner()
+        assert mapper.toJson(money) == json
+        JacksonMoney read = mapper.fromJson(json, JacksonMoney)
+        assert read.amount == 1.5 && read.currency == 'EUR'
+    }
+
+    @Test
+    void testSerializerBridge() {
+        GroovyJsonSerializer serializer = new GroovyJsonSerializer()
+            .addCustomSerializer(JacksonMoney, { JacksonMoney m, JsonWriter w ->
+                w.writeMap([value: "$m.amount $m.currency".toString(), at: Instant.ofEpochSecond(0), tags: ['a'] as String[]])
+            } as JsonTypeSerializer)
+        def o = [total: new JacksonMoney(amount: 1.5, currency: 'EUR'), lines: [new JacksonMoney(amount: 2, currency: 'USD')]]
+        // serializers resolved before the bridge is added must be replaced too
+        assert mapper.toJson(o).startsWith('{"total":{"amount":1.5')
+        mapper.addSerializers(serializer, JacksonMoney, Instant)
+        assert mapper.toJson(o) == serializer.toJson(o)
+        assert mapper.toJson(o) == '{"total":{"value":"1.5 EUR","at":"1970-01-01T00:00:00+0000","tags":["a"]},"lines":[{"value":"2 USD","at":"1970-01-01T00:00:00+0000","tags":["a"]}]}'
+        assert new GeneratorJsonWriter(serializer, true, new JsonFactory().createGenerator(new StringWriter()), null).toString().startsWith('GeneratorJsonWriter[')
+    }
+
+}
+
+class JacksonMoney {
+    BigDecimal amount
+    String currency
+}